@@ -28,39 +28,304 @@ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package cloud.orbit.samples.chat;
 
+import cloud.orbit.actors.Actor;
 import cloud.orbit.actors.ObserverManager;
 import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.actors.runtime.ActorRuntime;
+import cloud.orbit.actors.runtime.Registration;
+import cloud.orbit.actors.runtime.RemoteReference;
 import cloud.orbit.concurrent.Task;
+import cloud.orbit.samples.metrics.Histogram;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
 
+/**
+ * A chat room: keeps the history and sends the messages to the observers of the room.
+ * <p>
+ * Once a room has more than {@code orbit.samples.chat.shardSize} observers it stops notifying them itself:
+ * they are spread over {@link ChatRelay} shards and the room sends every message once per shard.
+ * A shard holding more than {@code shardSize} observers splits in two, handing half of them to the new shard
+ * after the messages already on their way. Shards don't merge back when the room shrinks.
+ * <p>
+ * The messages of a {@link #sayBatch} reach each observer in a single call; with
+ * {@code orbit.samples.chat.fanOutWindowMillis} the room also batches the messages said within that window.
+ * <p>
+ * Observers joining with a {@link ChatLease} are dropped once the lease of their frontend expires,
+ * checked every {@code orbit.samples.chat.leaseCheckMillis}.
+ * <p>
+ * With a {@link ChatArchiveExtension} the state only keeps the newest {@code orbit.samples.chat.hotMessages},
+ * older messages move to the archive a block at a time and are read back when a history asks for them.
+ * The archive keeps up to {@code orbit.samples.chat.historyRetention} messages.
+ * <p>
+ * Frontends list the members present in the room through their observer with {@link #updatePresence}.
+ * The changes are coalesced over {@code orbit.samples.chat.presenceWindowMillis} and reach each observer,
+ * or relay shard, as a single delta per window: a reconnect storm costs one call per observer per window
+ * however many members come and go, and a member leaving and coming back within the window costs nothing.
+ * Frontends get the whole roster with {@link #getPresence} when they start observing the room.
+ * <p>
+ * Searches go to a {@link ChatRoomSearch}, which indexes the retained messages on the first search.
+ * <p>
+ * While active the room publishes the messages said since its activation and the size of its history
+ * as {@code chat.room.<id>.*} gauges, and reports the messages said to {@link ChatHotRooms} once per period.
+ */
 public class ChatActor extends AbstractActor<ChatActor.State> implements Chat
 {
-    private int maxMessages = 1000;
+    private static final LongAdder stateWrites = ChatMetrics.counter("chat.state.writes");
+    private static final LongAdder stateWritesAvoided = ChatMetrics.counter("chat.state.writesAvoided");
+    private static final LongAdder observersPruned = ChatMetrics.counter("chat.observers.pruned");
+    private static final LongAdder deliveriesAvoided = ChatMetrics.counter("chat.observers.failedDeliveriesAvoided");
+    private static final LongAdder blocksWritten = ChatMetrics.counter("chat.archive.blocksWritten");
+    private static final LongAdder blocksRead = ChatMetrics.counter("chat.archive.blocksRead");
+    private static final LongAdder messagesSaid = ChatMetrics.counter("chat.messages.said");
+    private static final LongAdder presenceChanges = ChatMetrics.counter("chat.presence.changes");
+    private static final LongAdder presenceDeltas = ChatMetrics.counter("chat.presence.deltas");
+    private static final Histogram fanOutMicros = ChatMetrics.histogram("chat.fanOut.micros");
+    // observers, or relay shards, called for each fan-out
+    private static final Histogram fanOutObservers = ChatMetrics.histogram("chat.fanOut.observers");
+    private static final Histogram writeStateMicros = ChatMetrics.histogram("chat.state.writeMicros");
+    // rooms active on this node
+    private static final Set<String> activeRooms = ConcurrentHashMap.newKeySet();
+    private static final int MAX_BATCH = 100;
+
+    private int maxMessages = ChatHistory.DEFAULT_CAPACITY;
+
+    // only used with an archive, which then keeps the older messages
+    private int hotMessages = Math.max(1, Integer.getInteger("orbit.samples.chat.hotMessages", 200));
+    private int historyRetention = Integer.getInteger("orbit.samples.chat.historyRetention", 10_000);
+    private ChatArchiveExtension archive;
+
+    // created on activation, once the archive is known
+    private ChatRoomSearch search;
+
+    // 0 never shards
+    private int shardSize = Integer.getInteger("orbit.samples.chat.shardSize", 1000);
+
+    // messages said within the window reach the observers in a single call, 0 sends them as they come
+    private long fanOutWindowMillis = Long.getLong("orbit.samples.chat.fanOutWindowMillis", 0);
+    private final List<ChatMessageDto> pendingFanOut = new ArrayList<>();
+    private Registration fanOutTimer;
+
+    // roster changes within the window reach the observers in a single call, 0 sends them as they come
+    private long presenceWindowMillis = Long.getLong("orbit.samples.chat.presenceWindowMillis", 1000);
+    // number of observers each member is present through, rebuilt on activation
+    private final Map<String, Integer> present = new HashMap<>();
+    private final Set<String> pendingJoined = new HashSet<>();
+    private final Set<String> pendingLeft = new HashSet<>();
+    private Registration presenceTimer;
+    private List<String> roster;
 
+    // write-behind: changes are flushed every writeBehindMillis or after writeBehindMessages new messages
+    private boolean writeBehind = !Boolean.getBoolean("orbit.samples.chat.writeThrough");
+    private long writeBehindMillis = Long.getLong("orbit.samples.chat.writeBehindMillis", 5000);
+    private int writeBehindMessages = Integer.getInteger("orbit.samples.chat.writeBehindMessages", 100);
+
+    // with a journal the messages are appended one by one and a snapshot is only written every snapshotMessages
+    private int snapshotMessages = Integer.getInteger("orbit.samples.chat.snapshotMessages", 500);
+    private ChatJournalExtension journal;
+
+    private int observerCount;
+    // observers of expired leases dropped during this activation, without the lease check each would stay
+    // registered, here or in its relay, failing every delivery until the cleanup of the next activation
+    private int expiredObservers;
+    private long leaseCheckMillis = Long.getLong("orbit.samples.chat.leaseCheckMillis", 30_000);
     private long lastSave;
+    private boolean dirty;
+    private int unsavedMessages;
+
+    private final LongAdder said = new LongAdder();
+    private final LongSupplier saidGauge = said::sum;
+    private final LongSupplier historySizeGauge = () -> state().history.size();
+    private long reportedSaid;
 
     public static class State
     {
         ObserverManager<ChatObserver> observers = new ObserverManager<>();
-        LinkedList<ChatMessageDto> history = new LinkedList<>();
+        @JsonSerialize(using = ChatHistoryJson.Serializer.class)
+        @JsonDeserialize(using = ChatHistoryJson.Deserializer.class)
+        ChatHistory history = new ChatHistory();
+        // sequence of the newest message, a snapshot covers every message up to it
+        long sequence;
+        // the fan-out shards, empty while the room notifies its observers itself
+        List<Shard> shards = new ArrayList<>();
+        // lease of the frontend of each observer, by observer id
+        Map<String, String> leases = new HashMap<>();
+        // members present through each observer, by observer id
+        Map<String, Set<String>> presence = new HashMap<>();
+    }
+
+    public static class Shard
+    {
+        int index;
+        int depth;
+        // approximate, leaves of observers that weren't members still count
+        int members;
     }
 
     @Override
     public Task<Void> say(final ChatMessageDto message)
+    {
+        accept(message);
+        fanOut(message);
+        return saved(1);
+    }
+
+    @Override
+    public Task<Void> sayBatch(final List<ChatMessageDto> messages)
+    {
+        if (messages.isEmpty())
+        {
+            return Task.done();
+        }
+        messages.forEach(this::accept);
+        if (fanOutWindowMillis > 0)
+        {
+            messages.forEach(this::fanOut);
+        }
+        else
+        {
+            notifyObservers(messages);
+        }
+        return saved(messages.size());
+    }
+
+    private void accept(final ChatMessageDto message)
     {
         if (getLogger().isDebugEnabled())
         {
             getLogger().debug("Message received: " + message.getMessage());
         }
-        message.setWhen(new Date());
+        message.setWhenMillis(System.currentTimeMillis());
+        said.increment();
+        messagesSaid.increment();
+        final long sequence = ++state().sequence;
+        message.setSequence(sequence);
         state().history.add(message);
-        trimHistory();
-        state().observers.notifyObservers(o -> o.receiveMessage(message));
+        archiveOldest();
+        search.messagesSaid();
+        if (journal != null)
+        {
+            // not awaited, a durable journal would otherwise hold the actor's turn until its next fsync
+            journal.append(getIdentity(), sequence, message).exceptionally(ex -> {
+                getLogger().error("Error journaling message " + sequence, ex);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Sends the message right away, or with the others said within the fan-out window.
+     */
+    private void fanOut(final ChatMessageDto message)
+    {
+        if (fanOutWindowMillis <= 0)
+        {
+            notifyObservers(Collections.singletonList(message));
+            return;
+        }
+        pendingFanOut.add(message);
+        if (pendingFanOut.size() >= MAX_BATCH)
+        {
+            flushFanOut();
+        }
+        else if (fanOutTimer == null)
+        {
+            fanOutTimer = registerTimer(() -> {
+                flushFanOut();
+                return Task.done();
+            }, fanOutWindowMillis, fanOutWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushFanOut()
+    {
+        if (fanOutTimer != null)
+        {
+            fanOutTimer.dispose();
+            fanOutTimer = null;
+        }
+        if (!pendingFanOut.isEmpty())
+        {
+            final List<ChatMessageDto> batch = new ChatMessageList(pendingFanOut);
+            pendingFanOut.clear();
+            notifyObservers(batch);
+        }
+    }
+
+    private void notifyObservers(final List<ChatMessageDto> messages)
+    {
+        final long start = System.nanoTime();
+        deliveriesAvoided.add(expiredObservers);
+        final ChatMessageDto single = messages.size() == 1 ? messages.get(0) : null;
+        final List<ChatMessageDto> batch = single == null ? new ChatMessageList(messages) : null;
+        if (state().shards.isEmpty())
+        {
+            if (single != null)
+            {
+                state().observers.notifyObservers(o -> o.receiveMessage(single));
+            }
+            else
+            {
+                state().observers.notifyObservers(o -> o.receiveMessages(batch));
+            }
+            fannedOut(start, observerCount);
+            return;
+        }
+        for (Shard shard : state().shards)
+        {
+            final ChatRelay relay = ChatRelayActor.shard(getIdentity(), shard.index);
+            if (single != null)
+            {
+                relay.relay(single);
+            }
+            else
+            {
+                relay.relayBatch(batch);
+            }
+        }
+        fannedOut(start, state().shards.size());
+    }
+
+    private static void fannedOut(final long start, final int observers)
+    {
+        fanOutMicros.record((System.nanoTime() - start) / 1000);
+        fanOutObservers.record(observers);
+    }
+
+    /**
+     * Saves the state as the persistence mode requires after {@code count} new messages.
+     */
+    private Task<Void> saved(final int count)
+    {
+        unsavedMessages += count;
+        if (journal != null)
+        {
+            if (unsavedMessages >= snapshotMessages)
+            {
+                markDirty();
+                return writeState();
+            }
+            return Task.done();
+        }
+        markDirty();
+        if (writeBehind)
+        {
+            return unsavedMessages >= writeBehindMessages ? writeState() : Task.done();
+        }
         if (System.currentTimeMillis() - lastSave > TimeUnit.SECONDS.toMillis(60))
         {
             return writeState();
@@ -71,54 +336,502 @@ public class ChatActor extends AbstractActor<ChatActor.State> implements Chat
     @Override
     public Task<Boolean> join(final ChatObserver observer)
     {
-        state().observers.addObserver(observer);
-        return writeState().thenApply(x -> true);
+        addMember(observer);
+        markDirty();
+        return writeBehind ? Task.fromValue(true) : writeState().thenApply(x -> true);
+    }
+
+    @Override
+    public Task<Boolean> joinWithLease(final ChatObserver observer, final String lease)
+    {
+        state().leases.put(observerId(observer), lease);
+        return join(observer);
+    }
+
+    private void addMember(final ChatObserver observer)
+    {
+        if (state().observers.addObserver(observer))
+        {
+            if (!state().shards.isEmpty())
+            {
+                final Shard shard = shardOf(observer);
+                shard.members++;
+                ChatRelayActor.shard(getIdentity(), shard.index).join(observer);
+                splitIfFull(shard);
+            }
+            else if (shardSize > 0 && ++observerCount > shardSize)
+            {
+                startSharding();
+            }
+        }
+    }
+
+    @Override
+    public Task<Void> updatePresence(final ChatObserver observer, final List<String> joined, final List<String> left)
+    {
+        final String id = observerId(observer);
+        final Set<String> members = state().presence.computeIfAbsent(id, k -> new HashSet<>());
+        for (String member : left)
+        {
+            if (members.remove(member))
+            {
+                departed(member);
+            }
+        }
+        for (String member : joined)
+        {
+            if (members.add(member))
+            {
+                arrived(member);
+            }
+        }
+        if (members.isEmpty())
+        {
+            state().presence.remove(id);
+        }
+        markDirty();
+        if (presenceWindowMillis <= 0)
+        {
+            flushPresence();
+        }
+        return Task.done();
+    }
+
+    @Override
+    public Task<List<String>> getPresence()
+    {
+        if (roster == null)
+        {
+            // shared by the frontends asking until the next change
+            final List<String> names = new ArrayList<>(present.keySet());
+            Collections.sort(names);
+            roster = Collections.unmodifiableList(names);
+        }
+        return Task.fromValue(roster);
+    }
+
+    private void arrived(final String member)
+    {
+        if (present.merge(member, 1, Integer::sum) == 1)
+        {
+            presenceChanged(member, pendingLeft, pendingJoined);
+        }
+    }
+
+    private void departed(final String member)
+    {
+        if (present.computeIfPresent(member, (k, n) -> n > 1 ? n - 1 : null) == null)
+        {
+            presenceChanged(member, pendingJoined, pendingLeft);
+        }
+    }
+
+    /**
+     * Queues the change for the next delta, unless it undoes a change still queued.
+     */
+    private void presenceChanged(final String member, final Set<String> undone, final Set<String> pending)
+    {
+        presenceChanges.increment();
+        roster = null;
+        if (!undone.remove(member))
+        {
+            pending.add(member);
+        }
+        if (presenceTimer == null && presenceWindowMillis > 0)
+        {
+            presenceTimer = registerTimer(() -> {
+                flushPresence();
+                return Task.done();
+            }, presenceWindowMillis, presenceWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushPresence()
+    {
+        if (presenceTimer != null)
+        {
+            presenceTimer.dispose();
+            presenceTimer = null;
+        }
+        if (pendingJoined.isEmpty() && pendingLeft.isEmpty())
+        {
+            return;
+        }
+        final List<String> joined = new ArrayList<>(pendingJoined);
+        final List<String> left = new ArrayList<>(pendingLeft);
+        pendingJoined.clear();
+        pendingLeft.clear();
+        presenceDeltas.increment();
+        deliveriesAvoided.add(expiredObservers);
+        if (state().shards.isEmpty())
+        {
+            state().observers.notifyObservers(o -> o.receivePresence(joined, left));
+            return;
+        }
+        for (Shard shard : state().shards)
+        {
+            ChatRelayActor.shard(getIdentity(), shard.index).relayPresence(joined, left);
+        }
     }
 
     @Override
     public Task<List<ChatMessageDto>> getHistory(int messageCount)
     {
-        final LinkedList<ChatMessageDto> history = state().history;
-        return Task.fromValue(new ArrayList<>(
-                history.subList(Math.max(0, history.size() - messageCount), history.size())));
+        return latest(messageCount);
+    }
+
+    @Override
+    public Task<List<ChatMessageDto>> getHistorySince(final long sequence, final int maxMessages)
+    {
+        final ChatHistory history = state().history;
+        if (archive == null || history.isEmpty() || sequence >= history.get(0).getSequence() - 1)
+        {
+            return Task.fromValue(history.since(sequence, maxMessages));
+        }
+        // the sequences are contiguous, what was said since is the newest messages
+        return latest((int) Math.min(maxMessages, state().sequence - Math.max(0, sequence)));
+    }
+
+    /**
+     * The newest {@code count} messages, reading the older ones from the archive when the hot tail is too short.
+     */
+    private Task<List<ChatMessageDto>> latest(final int count)
+    {
+        final List<ChatMessageDto> hot = state().history.latest(count);
+        final long first = hot.isEmpty() ? state().sequence + 1 : hot.get(0).getSequence();
+        if (archive == null || hot.size() >= count || first <= 1)
+        {
+            return Task.fromValue(hot);
+        }
+        final long from = Math.max(1, first - Math.min(count - hot.size(), historyRetention));
+        final List<Task<List<ChatMessageDto>>> blocks = new ArrayList<>();
+        for (long block = ChatArchiveExtension.blockOf(from); block <= ChatArchiveExtension.blockOf(first - 1); block++)
+        {
+            blocks.add(archive.getBlock(getIdentity(), block));
+        }
+        blocksRead.add(blocks.size());
+        return Task.allOf(blocks).thenApply(x ->
+        {
+            final List<ChatMessageDto> messages = new ChatMessageList(count);
+            for (Task<List<ChatMessageDto>> block : blocks)
+            {
+                for (ChatMessageDto message : block.join())
+                {
+                    if (message.getSequence() >= from && message.getSequence() < first)
+                    {
+                        messages.add(message);
+                    }
+                }
+            }
+            messages.addAll(hot);
+            return messages;
+        });
+    }
+
+    @Override
+    public Task<List<ChatMessageDto>> search(final String query, final String sender, final long beforeSequence, final int maxResults)
+    {
+        return search.search(query, sender, beforeSequence, maxResults);
+    }
+
+    /**
+     * Moves the oldest block to the archive once the hot tail would still hold {@code hotMessages} without it.
+     */
+    private void archiveOldest()
+    {
+        final ChatHistory history = state().history;
+        while (archive != null && !history.isEmpty())
+        {
+            final long block = ChatArchiveExtension.blockOf(history.get(0).getSequence());
+            // the first block of a history older than the archive can be partial
+            final long end = (block + 1) * ChatArchiveExtension.BLOCK_SIZE;
+            final int count = (int) Math.min(history.size(), end - history.get(0).getSequence() + 1);
+            if (history.size() - count < hotMessages)
+            {
+                return;
+            }
+            final List<ChatMessageDto> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                messages.add(history.get(i));
+            }
+            history.removeOldest(count);
+            blocksWritten.increment();
+            // not awaited like the journal; the block is written before the snapshot that no longer has it
+            final String room = getIdentity();
+            archive.putBlock(room, block, messages).exceptionally(ex -> {
+                getLogger().error("Error archiving block " + block + " of " + room, ex);
+                return null;
+            });
+            final long expired = block - historyRetention / ChatArchiveExtension.BLOCK_SIZE;
+            if (expired >= 0)
+            {
+                archive.deleteBlock(room, expired);
+            }
+        }
     }
 
     @Override
     public Task<Boolean> leave(final ChatObserver observer)
+    {
+        removeMember(observer);
+        markDirty();
+        return writeBehind ? Task.fromValue(true) : writeState().thenApply(x -> true);
+    }
+
+    private void removeMember(final ChatObserver observer)
     {
         state().observers.removeObserver(observer);
-        return writeState().thenApply(x -> true);
+        state().leases.remove(observerId(observer));
+        final Set<String> members = state().presence.remove(observerId(observer));
+        if (members != null)
+        {
+            members.forEach(this::departed);
+        }
+        if (!state().shards.isEmpty())
+        {
+            final Shard shard = shardOf(observer);
+            shard.members = Math.max(0, shard.members - 1);
+            ChatRelayActor.shard(getIdentity(), shard.index).leave(observer);
+        }
+        else
+        {
+            observerCount = Math.max(0, observerCount - 1);
+        }
+    }
+
+    /**
+     * Drops the observers registered by frontends whose lease expired.
+     */
+    private Task<?> pruneExpiredLeases()
+    {
+        if (state().leases.isEmpty())
+        {
+            return Task.done();
+        }
+        final Map<String, Task<Boolean>> leases = new HashMap<>();
+        for (String lease : new HashSet<>(state().leases.values()))
+        {
+            // an unreachable lease is not an expired one
+            leases.put(lease, Actor.getReference(ChatLease.class, lease).isAlive().exceptionally(ex -> true));
+        }
+        return Task.allOf(leases.values()).thenRun(() ->
+        {
+            final Set<String> expired = new HashSet<>();
+            leases.forEach((lease, alive) -> {
+                if (!alive.join())
+                {
+                    expired.add(lease);
+                }
+            });
+            if (expired.isEmpty())
+            {
+                return;
+            }
+            final List<ChatObserver> pruned = state().observers.stream()
+                    .filter(o -> expired.contains(state().leases.get(observerId(o))))
+                    .collect(Collectors.toList());
+            pruned.forEach(this::removeMember);
+            state().leases.values().removeAll(expired);
+            expiredObservers += pruned.size();
+            observersPruned.add(pruned.size());
+            markDirty();
+            getLogger().info("Chat room " + getIdentity() + " dropped " + pruned.size() + " observers of expired frontends");
+        });
+    }
+
+    static String observerId(final ChatObserver observer)
+    {
+        return String.valueOf(RemoteReference.getId((RemoteReference<?>) observer));
     }
 
     @Override
     public Task<Void> activateAsync()
     {
-        return super.activateAsync().thenRun(() ->
+        return super.activateAsync().thenCompose(() ->
         {
-            state().observers.cleanup();
+            // states saved before the messages were numbered
+            state().sequence = Math.max(state().sequence, state().history.size());
+            state().history.assignSequences(state().sequence);
+            archive = ActorRuntime.getRuntime().getFirstExtension(ChatArchiveExtension.class);
+            search = new ChatRoomSearch(getIdentity(), this::state, archive, historyRetention, this::latest);
+            if (archive != null)
+            {
+                // histories saved before the archive was set up move there before the capacity shrinks
+                archiveOldest();
+                state().history.setCapacity(hotMessages + ChatArchiveExtension.BLOCK_SIZE);
+            }
+            else
+            {
+                state().history.setCapacity(maxMessages);
+            }
+            // the leases and the presence of the observers dropped by the cleanup go with them
+            return state().observers.cleanup().thenCompose(() -> observersCleaned());
         });
     }
 
+    /**
+     * Ends the activation once the observers that expired while the room was inactive are gone.
+     */
+    private Task<Void> observersCleaned()
+    {
+        observerCount = state().shards.isEmpty() ? (int) state().observers.stream().count() : 0;
+        final Set<String> observerIds = state().observers.stream().map(ChatActor::observerId).collect(Collectors.toSet());
+        final boolean leasesDropped = state().leases.keySet().retainAll(observerIds);
+        if (state().presence.keySet().retainAll(observerIds) || leasesDropped)
+        {
+            markDirty();
+        }
+        state().presence.values().forEach(members -> members.forEach(member -> present.merge(member, 1, Integer::sum)));
+        activeRooms.add(getIdentity());
+        ChatMetrics.register(metricName("said"), saidGauge);
+        registerTimer(() -> reportRate(), ChatHotRoomsActor.PERIOD_MILLIS, ChatHotRoomsActor.PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        ChatMetrics.register(metricName("historySize"), historySizeGauge);
+        registerTimer(() -> pruneExpiredLeases(), leaseCheckMillis, leaseCheckMillis, TimeUnit.MILLISECONDS);
+        if (writeBehind)
+        {
+            registerTimer(() -> flush(), writeBehindMillis, writeBehindMillis, TimeUnit.MILLISECONDS);
+        }
+        journal = ActorRuntime.getRuntime().getFirstExtension(ChatJournalExtension.class);
+        if (journal == null)
+        {
+            return Task.done();
+        }
+        return journal.readAfter(getIdentity(), state().sequence).thenAccept(this::replay);
+    }
+
+    private Shard shardOf(final ChatObserver observer)
+    {
+        for (Shard shard : state().shards)
+        {
+            if (ChatRelayActor.inShard(observer, shard.index, shard.depth))
+            {
+                return shard;
+            }
+        }
+        throw new IllegalStateException("No shard for " + observer + " in " + getIdentity());
+    }
+
+    private void startSharding()
+    {
+        final List<ChatObserver> members = state().observers.stream().collect(Collectors.toList());
+        final Shard shard = new Shard();
+        shard.members = members.size();
+        state().shards.add(shard);
+        // the room stops notifying them in this very turn, they got every message up to now
+        ChatRelayActor.handOver(ChatRelayActor.shard(getIdentity(), shard.index), members, state().sequence).exceptionally(ex ->
+        {
+            getLogger().error("Chat room " + getIdentity() + " could not hand its members over to its first shard", ex);
+            return null;
+        });
+        splitIfFull(shard);
+    }
+
+    private void splitIfFull(final Shard shard)
+    {
+        if (shard.members <= shardSize || shard.depth >= 30)
+        {
+            return;
+        }
+        final Shard split = new Shard();
+        split.depth = shard.depth + 1;
+        split.index = shard.index | (1 << shard.depth);
+        split.members = (int) state().observers.stream()
+                .filter(o -> ChatRelayActor.inShard(o, split.index, split.depth))
+                .count();
+        shard.depth = split.depth;
+        shard.members = Math.max(0, shard.members - split.members);
+        state().shards.add(split);
+        // sent before any message to the new shard, which waits for its members
+        ChatRelayActor.shard(getIdentity(), split.index).awaitMembers();
+        ChatRelayActor.shard(getIdentity(), shard.index).split(split.index, split.depth);
+        getLogger().info("Chat room " + getIdentity() + " now has " + state().shards.size() + " shards");
+        splitIfFull(shard);
+        splitIfFull(split);
+    }
+
+    private void replay(final SortedMap<Long, ChatMessageDto> tail)
+    {
+        for (Map.Entry<Long, ChatMessageDto> entry : tail.entrySet())
+        {
+            entry.getValue().setSequence(entry.getKey());
+            state().history.add(entry.getValue());
+            state().sequence = entry.getKey();
+            archiveOldest();
+        }
+        unsavedMessages = tail.size();
+    }
+
+    private void markDirty()
+    {
+        if (dirty && writeBehind)
+        {
+            // folded into the write that is already pending
+            stateWritesAvoided.increment();
+        }
+        dirty = true;
+    }
+
+    private Task<Void> reportRate()
+    {
+        final long messages = said.sum() - reportedSaid;
+        reportedSaid += messages;
+        if (messages > 0)
+        {
+            Actor.getReference(ChatHotRooms.class, ChatHotRoomsActor.ID).report(getIdentity(), messages);
+        }
+        return Task.done();
+    }
+
+    static Set<String> activeRooms()
+    {
+        return Collections.unmodifiableSet(activeRooms);
+    }
+
     @Override
-    protected Task<Void> writeState()
+    public Task<Void> flush()
     {
-        lastSave = System.currentTimeMillis();
-        trimHistory();
-        return super.writeState();
+        if (!dirty)
+        {
+            return Task.done();
+        }
+        return writeState();
     }
 
-    private void trimHistory()
+    @Override
+    protected Task<Void> writeState()
     {
-        while (state().history.size() > maxMessages)
+        lastSave = System.currentTimeMillis();
+        dirty = false;
+        unsavedMessages = 0;
+        stateWrites.increment();
+        final long start = System.nanoTime();
+        final Task<Void> write = super.writeState();
+        write.thenRun(() -> writeStateMicros.record((System.nanoTime() - start) / 1000));
+        if (journal == null)
         {
-            state().history.remove(0);
+            return write;
         }
+        // the snapshot now covers the journaled messages
+        final String room = getIdentity();
+        final long sequence = state().sequence;
+        return write.thenCompose(() -> journal.truncate(room, sequence));
     }
 
     @Override
     public Task<?> deactivateAsync()
     {
-        return writeState().thenCompose(() -> super.deactivateAsync());
+        flushFanOut();
+        flushPresence();
+        activeRooms.remove(getIdentity());
+        ChatMetrics.unregister(metricName("said"), saidGauge);
+        ChatMetrics.unregister(metricName("historySize"), historySizeGauge);
+        return flush().thenCompose(() -> super.deactivateAsync());
+    }
+
+    private String metricName(final String metric)
+    {
+        return "chat.room." + getIdentity() + "." + metric;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.extensions.ActorExtension;
+import cloud.orbit.concurrent.Task;
+
+import java.util.List;
+
+/**
+ * Cold tier of the chat history: the messages that left the hot tail kept in the room's state.
+ * <p>
+ * Messages are stored in blocks of {@link #BLOCK_SIZE} consecutive sequence numbers,
+ * block {@code n} holding the sequences {@code n * BLOCK_SIZE + 1} to {@code (n + 1) * BLOCK_SIZE}.
+ */
+public interface ChatArchiveExtension extends ActorExtension
+{
+    int BLOCK_SIZE = 100;
+
+    static long blockOf(final long sequence)
+    {
+        return (sequence - 1) / BLOCK_SIZE;
+    }
+
+    Task<Void> putBlock(String room, long block, List<ChatMessageDto> messages);
+
+    /**
+     * Returns the messages of the block in order, an empty list if it isn't archived.
+     */
+    Task<List<ChatMessageDto>> getBlock(String room, long block);
+
+    Task<Void> deleteBlock(String room, long block);
+}
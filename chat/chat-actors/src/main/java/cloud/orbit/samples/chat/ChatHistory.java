@@ -0,0 +1,204 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Fixed capacity, array backed ring buffer holding the most recent chat messages.
+ * <p>
+ * Appending to a full history overwrites the oldest entry, so neither appends nor trims
+ * ever shift or walk the stored messages. The storage extensions see it as a plain list.
+ */
+public class ChatHistory extends AbstractList<ChatMessageDto> implements RandomAccess
+{
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private ChatMessageDto[] buffer;
+    private int head;
+    private int size;
+
+    public ChatHistory()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChatHistory(final int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        buffer = new ChatMessageDto[capacity];
+    }
+
+    @Override
+    public boolean add(final ChatMessageDto message)
+    {
+        if (size < buffer.length)
+        {
+            buffer[index(size)] = message;
+            size++;
+        }
+        else
+        {
+            buffer[head] = message;
+            head = index(1);
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public ChatMessageDto get(final int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return buffer[index(index)];
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            buffer[index(i)] = null;
+        }
+        head = 0;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Removes the {@code count} oldest messages.
+     */
+    public void removeOldest(final int count)
+    {
+        final int n = Math.max(0, Math.min(count, size));
+        for (int i = 0; i < n; i++)
+        {
+            buffer[index(i)] = null;
+        }
+        head = index(n);
+        size -= n;
+        modCount++;
+    }
+
+    /**
+     * Copies the newest {@code count} messages, oldest first.
+     */
+    public List<ChatMessageDto> latest(final int count)
+    {
+        final int n = Math.max(0, Math.min(count, size));
+        final List<ChatMessageDto> result = new ChatMessageList(n);
+        for (int i = size - n; i < size; i++)
+        {
+            result.add(buffer[index(i)]);
+        }
+        return result;
+    }
+
+    /**
+     * Copies the messages following the given sequence number, at most the newest {@code max} of them.
+     * <p>
+     * The room numbers its messages without gaps, so the position of a sequence number
+     * follows from the sequence number of the newest message.
+     */
+    public List<ChatMessageDto> since(final long sequence, final int max)
+    {
+        if (size == 0)
+        {
+            return latest(0);
+        }
+        final long newer = buffer[index(size - 1)].getSequence() - sequence;
+        return latest((int) Math.max(0, Math.min(newer, max)));
+    }
+
+    /**
+     * Numbers the messages that came from a history saved without sequence numbers,
+     * given the sequence number of the newest one.
+     */
+    public void assignSequences(final long newest)
+    {
+        for (int i = size - 1; i >= 0; i--)
+        {
+            final ChatMessageDto message = buffer[index(i)];
+            if (message.getSequence() == 0)
+            {
+                message.setSequence(newest - (size - 1 - i));
+            }
+        }
+    }
+
+    public int getCapacity()
+    {
+        return buffer.length;
+    }
+
+    /**
+     * Changes the capacity, keeping the newest messages if the history has to shrink.
+     */
+    public void setCapacity(final int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        if (capacity == buffer.length)
+        {
+            return;
+        }
+        final int kept = Math.min(size, capacity);
+        final ChatMessageDto[] resized = new ChatMessageDto[capacity];
+        for (int i = 0; i < kept; i++)
+        {
+            resized[i] = buffer[index(size - kept + i)];
+        }
+        buffer = resized;
+        head = 0;
+        size = kept;
+        modCount++;
+    }
+
+    private int index(final int offset)
+    {
+        final int i = head + offset;
+        return i < buffer.length ? i : i - buffer.length;
+    }
+}
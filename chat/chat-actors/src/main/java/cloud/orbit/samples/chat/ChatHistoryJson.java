@@ -0,0 +1,84 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.samples.metrics.Histogram;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores a {@link ChatHistory} in the JSON storage extensions as a single {@link ChatMessageCodec} batch,
+ * stored by columns and deflated.
+ * <p>
+ * Histories saved as a JSON array of messages or as a batch of rows by earlier versions are still read.
+ */
+public final class ChatHistoryJson
+{
+    private ChatHistoryJson()
+    {
+    }
+
+    public static class Serializer extends JsonSerializer<ChatHistory>
+    {
+        private static final Histogram historyBytes = ChatMetrics.histogram("chat.state.historyBytes");
+
+        @Override
+        public void serialize(final ChatHistory history, final JsonGenerator gen, final SerializerProvider serializers) throws IOException
+        {
+            final byte[] encoded = ChatMessageCodec.encodeColumns(history);
+            historyBytes.record(encoded.length);
+            gen.writeBinary(encoded);
+        }
+    }
+
+    public static class Deserializer extends JsonDeserializer<ChatHistory>
+    {
+        @Override
+        public ChatHistory deserialize(final JsonParser p, final DeserializationContext ctxt) throws IOException
+        {
+            final List<ChatMessageDto> messages = p.getCurrentToken() == JsonToken.START_ARRAY
+                    ? Arrays.asList(p.readValueAs(ChatMessageDto[].class))
+                    : ChatMessageCodec.decodeBatch(p.getBinaryValue());
+            // the owner adjusts the capacity once activated, don't lose messages before that
+            final ChatHistory history = new ChatHistory(Math.max(ChatHistory.DEFAULT_CAPACITY, messages.size()));
+            history.addAll(messages);
+            return history;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the messages each room said in its latest reported period, saved once per period.
+ * <p>
+ * The rate of a room that didn't report during a period is halved, and the room dropped once it reaches 0.
+ * Only the {@code orbit.samples.chat.trackedRooms} busiest rooms are kept.
+ */
+public class ChatHotRoomsActor extends AbstractActor<ChatHotRoomsActor.State> implements ChatHotRooms
+{
+    static final String ID = "0";
+    static final long PERIOD_MILLIS = Long.getLong("orbit.samples.chat.hotRoomReportMillis", 60_000);
+
+    private int trackedRooms = Integer.getInteger("orbit.samples.chat.trackedRooms", 10_000);
+    private final Set<String> reported = new HashSet<>();
+
+    public static class State
+    {
+        Map<String, Long> rates = new HashMap<>();
+    }
+
+    @Override
+    public Task<Void> report(final String room, final long messages)
+    {
+        state().rates.put(room, messages);
+        reported.add(room);
+        return Task.done();
+    }
+
+    @Override
+    public Task<List<String>> hottest(final int count)
+    {
+        return Task.fromValue(ranked(count));
+    }
+
+    private List<String> ranked(final int count)
+    {
+        return state().rates.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(count)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private Task<Void> endPeriod()
+    {
+        state().rates.replaceAll((room, rate) -> reported.contains(room) ? rate : rate / 2);
+        state().rates.values().removeIf(rate -> rate <= 0);
+        reported.clear();
+        if (state().rates.size() > trackedRooms)
+        {
+            state().rates.keySet().retainAll(new HashSet<>(ranked(trackedRooms)));
+        }
+        return writeState();
+    }
+
+    @Override
+    public Task<?> activateAsync()
+    {
+        return super.activateAsync().thenRun(() ->
+                registerTimer(() -> endPeriod(), PERIOD_MILLIS, PERIOD_MILLIS, TimeUnit.MILLISECONDS));
+    }
+}
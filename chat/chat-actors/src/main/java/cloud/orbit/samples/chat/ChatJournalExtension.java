@@ -0,0 +1,55 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.extensions.ActorExtension;
+import cloud.orbit.concurrent.Task;
+
+import java.util.SortedMap;
+
+/**
+ * Append only log of the chat messages said after a room's last state snapshot.
+ * <p>
+ * {@link ChatActor} appends one record per message and truncates the log once a snapshot
+ * covering those messages has been written, activation replays whatever is left.
+ */
+public interface ChatJournalExtension extends ActorExtension
+{
+    Task<Void> append(String room, long sequence, ChatMessageDto message);
+
+    /**
+     * Returns the journaled messages with a sequence greater than {@code sequence}, in order.
+     */
+    Task<SortedMap<Long, ChatMessageDto>> readAfter(String room, long sequence);
+
+    /**
+     * Drops the journaled messages with a sequence up to and including {@code sequence}.
+     */
+    Task<Void> truncate(String room, long sequence);
+}
@@ -0,0 +1,65 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.concurrent.Task;
+
+/**
+ * Keeps the lease in memory only: a lease activated again, after its node left the cluster,
+ * gets a grace period of {@code orbit.samples.chat.leaseGraceMillis} before it can expire,
+ * so the frontend has time to renew it.
+ */
+public class ChatLeaseActor extends AbstractActor implements ChatLease
+{
+    private long graceMillis = Long.getLong("orbit.samples.chat.leaseGraceMillis", 60_000);
+    private long expiry;
+
+    @Override
+    public Task<Boolean> renew(final long ttlMillis)
+    {
+        final long now = System.currentTimeMillis();
+        final boolean alive = now <= expiry;
+        expiry = now + ttlMillis;
+        return Task.fromValue(alive);
+    }
+
+    @Override
+    public Task<Boolean> isAlive()
+    {
+        return Task.fromValue(System.currentTimeMillis() <= expiry);
+    }
+
+    @Override
+    public Task<?> activateAsync()
+    {
+        expiry = System.currentTimeMillis() + graceMillis;
+        return super.activateAsync();
+    }
+}
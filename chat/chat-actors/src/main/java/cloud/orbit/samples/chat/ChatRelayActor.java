@@ -0,0 +1,369 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.ObserverManager;
+import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.actors.runtime.Registration;
+import cloud.orbit.concurrent.Task;
+import cloud.orbit.samples.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Shard of a large room's observers, see {@link ChatActor}.
+ * <p>
+ * Shards are numbered like the buckets of an extendible hash: shard {@code index} at {@code depth}
+ * holds the observers whose hash ends with the {@code depth} low bits of {@code index}.
+ * Messages are delivered in sequence order, the few that arrive out of order wait for the ones before them,
+ * for {@code orbit.samples.chat.relayGapMillis} at most. A new shard waits as long for its members.
+ */
+public class ChatRelayActor extends AbstractActor<ChatRelayActor.State> implements ChatRelay
+{
+    private static final LongAdder relayed = ChatMetrics.counter("chat.relay.messages");
+    private static final LongAdder gapsSkipped = ChatMetrics.counter("chat.relay.gapsSkipped");
+    private static final Histogram fanOutMicros = ChatMetrics.histogram("chat.relay.fanOutMicros");
+    private static final int MAX_OUT_OF_ORDER = 64;
+    private static final int MAX_HELD = 1024;
+    private static final int ADOPT_ATTEMPTS = 3;
+
+    private long flushMillis = Long.getLong("orbit.samples.chat.writeBehindMillis", 5000);
+    private long gapMillis = Long.getLong("orbit.samples.chat.relayGapMillis", 2000);
+
+    // sequence of the last message delivered, 0 until the first one
+    private long lastSequence;
+    private boolean awaitingMembers;
+    private final TreeMap<Long, ChatMessageDto> held = new TreeMap<>();
+    private final List<ChatMessageDto> delivered = new ArrayList<>();
+    private final Map<String, Boolean> heldPresence = new LinkedHashMap<>();
+    // releases the held messages once they waited too long
+    private Registration releaseTimer;
+    private boolean dirty;
+
+    public static class State
+    {
+        ObserverManager<ChatObserver> observers = new ObserverManager<>();
+    }
+
+    static ChatRelay shard(final String room, final int index)
+    {
+        return Actor.getReference(ChatRelay.class, room + "#" + index);
+    }
+
+    /**
+     * Hands the members over to the shard, trying again if the call fails.
+     */
+    static Task<Void> handOver(final ChatRelay shard, final List<ChatObserver> members, final long lastSequence)
+    {
+        return handOver(shard, members, lastSequence, ADOPT_ATTEMPTS);
+    }
+
+    private static Task<Void> handOver(final ChatRelay shard, final List<ChatObserver> members, final long lastSequence, final int attempts)
+    {
+        return shard.adopt(members, lastSequence).handle((x, ex) -> ex).thenCompose(ex ->
+        {
+            if (ex == null)
+            {
+                return Task.done();
+            }
+            return attempts > 1 ? handOver(shard, members, lastSequence, attempts - 1) : Task.<Void>fromException(ex);
+        });
+    }
+
+    static int hash(final ChatObserver observer)
+    {
+        final int h = ChatActor.observerId(observer).hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static boolean inShard(final ChatObserver observer, final int index, final int depth)
+    {
+        final int mask = depth >= 32 ? -1 : (1 << depth) - 1;
+        return (hash(observer) & mask) == index;
+    }
+
+    @Override
+    public Task<Void> relay(final ChatMessageDto message)
+    {
+        receive(message);
+        sendDelivered();
+        return Task.done();
+    }
+
+    @Override
+    public Task<Void> relayBatch(final List<ChatMessageDto> messages)
+    {
+        messages.forEach(this::receive);
+        sendDelivered();
+        return Task.done();
+    }
+
+    @Override
+    public Task<Void> relayPresence(final List<String> joined, final List<String> left)
+    {
+        if (awaitingMembers)
+        {
+            // only the latest change of each member matters
+            joined.forEach(member -> heldPresence.put(member, true));
+            left.forEach(member -> heldPresence.put(member, false));
+            return Task.done();
+        }
+        state().observers.notifyObservers(o -> o.receivePresence(joined, left));
+        return Task.done();
+    }
+
+    private void sendHeldPresence()
+    {
+        if (heldPresence.isEmpty())
+        {
+            return;
+        }
+        final List<String> joined = new ArrayList<>();
+        final List<String> left = new ArrayList<>();
+        heldPresence.forEach((member, present) -> (present ? joined : left).add(member));
+        heldPresence.clear();
+        state().observers.notifyObservers(o -> o.receivePresence(joined, left));
+    }
+
+    private void receive(final ChatMessageDto message)
+    {
+        final long sequence = message.getSequence();
+        if (awaitingMembers)
+        {
+            held.put(sequence, message);
+            if (held.size() > MAX_HELD)
+            {
+                release();
+            }
+            return;
+        }
+        if (sequence == 0 || lastSequence == 0 || sequence == lastSequence + 1)
+        {
+            deliver(message);
+            deliverHeld();
+        }
+        else if (sequence > lastSequence)
+        {
+            held.put(sequence, message);
+            if (held.size() > MAX_OUT_OF_ORDER)
+            {
+                // the missing ones are not coming, don't hold the others any longer
+                release();
+            }
+            else
+            {
+                startReleaseTimer();
+            }
+        }
+    }
+
+    private void startReleaseTimer()
+    {
+        if (releaseTimer == null)
+        {
+            releaseTimer = registerTimer(() -> {
+                release();
+                sendDelivered();
+                return Task.done();
+            }, gapMillis, gapMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops waiting for the members or for the missing messages, and delivers the held ones.
+     */
+    private void release()
+    {
+        if (releaseTimer != null)
+        {
+            releaseTimer.dispose();
+            releaseTimer = null;
+        }
+        if (awaitingMembers)
+        {
+            getLogger().warn("Shard " + getIdentity() + " gave up waiting for its members");
+            awaitingMembers = false;
+            sendHeldPresence();
+        }
+        if (!held.isEmpty() && (lastSequence == 0 || held.firstKey() > lastSequence + 1))
+        {
+            if (lastSequence != 0)
+            {
+                gapsSkipped.increment();
+            }
+            lastSequence = held.firstKey() - 1;
+        }
+        deliverHeld();
+        if (!held.isEmpty())
+        {
+            startReleaseTimer();
+        }
+    }
+
+    @Override
+    public Task<Void> join(final ChatObserver observer)
+    {
+        state().observers.addObserver(observer);
+        dirty = true;
+        return Task.done();
+    }
+
+    @Override
+    public Task<Void> leave(final ChatObserver observer)
+    {
+        state().observers.removeObserver(observer);
+        dirty = true;
+        return Task.done();
+    }
+
+    @Override
+    public Task<Void> awaitMembers()
+    {
+        awaitingMembers = true;
+        startReleaseTimer();
+        return Task.done();
+    }
+
+    @Override
+    public Task<Void> adopt(final List<ChatObserver> members, final long lastSequence)
+    {
+        members.forEach(state().observers::addObserver);
+        dirty = true;
+        awaitingMembers = false;
+        // a retried hand over must not take the shard back
+        this.lastSequence = Math.max(this.lastSequence, lastSequence);
+        // the room kept sending while the members were on their way
+        held.headMap(this.lastSequence, true).clear();
+        deliverHeld();
+        sendDelivered();
+        sendHeldPresence();
+        return writeState();
+    }
+
+    @Override
+    public Task<Void> split(final int index, final int depth)
+    {
+        final List<ChatObserver> moved = state().observers.stream()
+                .filter(o -> inShard(o, index, depth))
+                .collect(Collectors.toList());
+        moved.forEach(state().observers::removeObserver);
+        dirty = true;
+        // this turn comes after every message the room sent before splitting
+        final String room = getIdentity().substring(0, getIdentity().lastIndexOf('#'));
+        return handOver(shard(room, index), moved, lastSequence).exceptionally(ex ->
+        {
+            // the room relays every message to every shard, the members keep getting them from here
+            getLogger().error("Shard " + getIdentity() + " could not hand " + moved.size() + " members over, keeping them", ex);
+            moved.forEach(state().observers::addObserver);
+            return null;
+        }).thenCompose(() -> writeState());
+    }
+
+    private void deliver(final ChatMessageDto message)
+    {
+        delivered.add(message);
+        relayed.increment();
+        if (message.getSequence() != 0)
+        {
+            lastSequence = message.getSequence();
+        }
+    }
+
+    /**
+     * Sends the messages delivered during this turn, in a single call to each observer.
+     */
+    private void sendDelivered()
+    {
+        if (delivered.isEmpty())
+        {
+            return;
+        }
+        final long start = System.nanoTime();
+        if (delivered.size() == 1)
+        {
+            final ChatMessageDto message = delivered.get(0);
+            state().observers.notifyObservers(o -> o.receiveMessage(message));
+        }
+        else
+        {
+            final List<ChatMessageDto> batch = new ChatMessageList(delivered);
+            state().observers.notifyObservers(o -> o.receiveMessages(batch));
+        }
+        delivered.clear();
+        fanOutMicros.record((System.nanoTime() - start) / 1000);
+    }
+
+    private void deliverHeld()
+    {
+        while (!held.isEmpty() && held.firstKey() <= lastSequence + 1)
+        {
+            final Map.Entry<Long, ChatMessageDto> next = held.pollFirstEntry();
+            if (next.getKey() > lastSequence)
+            {
+                deliver(next.getValue());
+            }
+        }
+        if (held.isEmpty() && releaseTimer != null && !awaitingMembers)
+        {
+            releaseTimer.dispose();
+            releaseTimer = null;
+        }
+    }
+
+    @Override
+    public Task<?> activateAsync()
+    {
+        return super.activateAsync().thenRun(() ->
+        {
+            state().observers.cleanup();
+            registerTimer(() -> dirty ? writeState() : Task.done(), flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    @Override
+    protected Task<Void> writeState()
+    {
+        dirty = false;
+        return super.writeState();
+    }
+
+    @Override
+    public Task<?> deactivateAsync()
+    {
+        return (dirty ? writeState() : Task.done()).thenCompose(() -> super.deactivateAsync());
+    }
+}
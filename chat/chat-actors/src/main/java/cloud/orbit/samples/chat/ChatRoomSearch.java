@@ -0,0 +1,175 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * The search of a {@link ChatActor}, created on each activation and called in the turns of the room.
+ * <p>
+ * The first search builds a {@link ChatSearchIndex} of the retained messages, the hot tail and the archive,
+ * kept up to date from then on as the room says messages. The messages found are read back from the hot tail
+ * or the archive blocks holding them.
+ */
+final class ChatRoomSearch
+{
+    private static final LongAdder searches = ChatMetrics.counter("chat.search.queries");
+    private static final LongAdder searchIndexBuilds = ChatMetrics.counter("chat.search.indexBuilds");
+    private static final LongAdder blocksRead = ChatMetrics.counter("chat.archive.blocksRead");
+
+    private final String room;
+    private final Supplier<ChatActor.State> state;
+    private final ChatArchiveExtension archive;
+    private final int historyRetention;
+    // the newest messages of the room, archive included
+    private final IntFunction<Task<List<ChatMessageDto>>> latest;
+
+    // not persisted, built on the first search of the activation
+    private Task<ChatSearchIndex> index;
+
+    ChatRoomSearch(final String room, final Supplier<ChatActor.State> state, final ChatArchiveExtension archive,
+                   final int historyRetention, final IntFunction<Task<List<ChatMessageDto>>> latest)
+    {
+        this.room = room;
+        this.state = state;
+        this.archive = archive;
+        this.historyRetention = historyRetention;
+        this.latest = latest;
+    }
+
+    Task<List<ChatMessageDto>> search(final String query, final String sender, final long beforeSequence, final int maxResults)
+    {
+        searches.increment();
+        return index().thenCompose(index ->
+        {
+            update(index);
+            return messages(index.search(query, sender, beforeSequence, maxResults));
+        });
+    }
+
+    /**
+     * Indexes the messages just said, once the index is built.
+     */
+    void messagesSaid()
+    {
+        if (index != null && index.isDone() && !index.isCompletedExceptionally())
+        {
+            update(index.join());
+        }
+    }
+
+    private Task<ChatSearchIndex> index()
+    {
+        if (index == null || index.isCompletedExceptionally())
+        {
+            searchIndexBuilds.increment();
+            final int retained = state.get().history.size() + (archive != null ? historyRetention : 0);
+            index = latest.apply(retained).thenApply(messages ->
+            {
+                final ChatSearchIndex index = new ChatSearchIndex();
+                messages.forEach(index::add);
+                return index;
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Indexes the messages said since the index was last updated and forgets those that are no longer retained.
+     */
+    private void update(final ChatSearchIndex index)
+    {
+        final ChatHistory history = state.get().history;
+        int i = history.size();
+        while (i > 0 && history.get(i - 1).getSequence() > index.getNewest())
+        {
+            i--;
+        }
+        for (; i < history.size(); i++)
+        {
+            index.add(history.get(i));
+        }
+        index.removeBefore(oldestRetained());
+    }
+
+    private long oldestRetained()
+    {
+        final ChatHistory history = state.get().history;
+        final long first = history.isEmpty() ? state.get().sequence + 1 : history.get(0).getSequence();
+        if (archive == null)
+        {
+            return first;
+        }
+        // the room keeps the blocks preceding the hot tail within the retention
+        final long block = ChatArchiveExtension.blockOf(first) - historyRetention / ChatArchiveExtension.BLOCK_SIZE;
+        return Math.max(1, block * ChatArchiveExtension.BLOCK_SIZE + 1);
+    }
+
+    /**
+     * The messages with the given sequence numbers, in the same order, from the hot tail or the archive.
+     */
+    private Task<List<ChatMessageDto>> messages(final long[] sequences)
+    {
+        final ChatHistory history = state.get().history;
+        final List<ChatMessageDto> hot = history.latest(history.size());
+        final long first = hot.isEmpty() ? state.get().sequence + 1 : hot.get(0).getSequence();
+        final Map<Long, Task<List<ChatMessageDto>>> blocks = new HashMap<>();
+        for (long sequence : sequences)
+        {
+            if (sequence < first && archive != null)
+            {
+                blocks.computeIfAbsent(ChatArchiveExtension.blockOf(sequence), block -> archive.getBlock(room, block));
+            }
+        }
+        blocksRead.add(blocks.size());
+        return Task.allOf(blocks.values()).thenApply(x ->
+        {
+            final Map<Long, ChatMessageDto> archived = new HashMap<>();
+            blocks.values().forEach(block -> block.join().forEach(m -> archived.put(m.getSequence(), m)));
+            final List<ChatMessageDto> messages = new ChatMessageList(sequences.length);
+            for (long sequence : sequences)
+            {
+                // blocks expired since the search are gone
+                final ChatMessageDto message = sequence >= first ? hot.get((int) (sequence - first)) : archived.get(sequence);
+                if (message != null)
+                {
+                    messages.add(message);
+                }
+            }
+            return messages;
+        });
+    }
+}
@@ -0,0 +1,254 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of the messages of a room, from the terms and the senders to the sequence numbers.
+ * <p>
+ * Messages are added in sequence order, so every posting list is sorted by construction and
+ * the oldest entries are dropped from their front. Terms are the lowercase runs of letters and digits.
+ */
+public class ChatSearchIndex
+{
+    // dropping the entries of old messages walks every posting list, done once this many messages expired
+    static final int PRUNE_STEP = 100;
+
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final Map<String, Postings> senders = new HashMap<>();
+    private long newest;
+    private long oldest = 1;
+    private long pruned = 1;
+
+    /**
+     * Indexes a message newer than all the indexed ones, older messages are ignored.
+     */
+    public void add(final ChatMessageDto message)
+    {
+        final long sequence = message.getSequence();
+        if (sequence <= newest)
+        {
+            return;
+        }
+        newest = sequence;
+        for (String term : terms(message.getMessage()))
+        {
+            terms.computeIfAbsent(term, t -> new Postings()).add(sequence);
+        }
+        if (message.getSender() != null)
+        {
+            senders.computeIfAbsent(message.getSender(), s -> new Postings()).add(sequence);
+        }
+    }
+
+    /**
+     * Forgets the messages before the given sequence number.
+     */
+    public void removeBefore(final long sequence)
+    {
+        if (sequence <= oldest)
+        {
+            return;
+        }
+        oldest = sequence;
+        if (oldest - pruned >= PRUNE_STEP)
+        {
+            pruned = oldest;
+            prune(terms);
+            prune(senders);
+        }
+    }
+
+    private void prune(final Map<String, Postings> index)
+    {
+        for (Iterator<Postings> i = index.values().iterator(); i.hasNext(); )
+        {
+            if (i.next().removeBefore(oldest))
+            {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Sequence numbers of the messages holding every term of the query, said by the sender unless it is null,
+     * older than {@code beforeSequence} unless it is 0, newest first.
+     */
+    public long[] search(final String query, final String sender, final long beforeSequence, final int maxResults)
+    {
+        final List<Postings> lists = new ArrayList<>();
+        for (String term : terms(query))
+        {
+            lists.add(terms.get(term));
+        }
+        if (sender != null)
+        {
+            lists.add(senders.get(sender));
+        }
+        if (lists.isEmpty() || lists.contains(null) || maxResults <= 0)
+        {
+            return new long[0];
+        }
+        // walks the shortest list and looks the candidates up in the others
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        final Postings shortest = lists.get(0);
+        final long before = beforeSequence > 0 ? beforeSequence : Long.MAX_VALUE;
+        final long[] results = new long[Math.min(maxResults, shortest.size())];
+        int count = 0;
+        for (int i = shortest.indexBefore(before); i >= shortest.start && count < results.length; i--)
+        {
+            final long candidate = shortest.sequences[i];
+            if (candidate < oldest)
+            {
+                break;
+            }
+            if (containedInAll(lists, candidate))
+            {
+                results[count++] = candidate;
+            }
+        }
+        return count == results.length ? results : Arrays.copyOf(results, count);
+    }
+
+    private static boolean containedInAll(final List<Postings> lists, final long sequence)
+    {
+        for (int j = 1; j < lists.size(); j++)
+        {
+            if (!lists.get(j).contains(sequence))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getNewest()
+    {
+        return newest;
+    }
+
+    public int getTermCount()
+    {
+        return terms.size();
+    }
+
+    /**
+     * Distinct lowercase terms of the text, in order of appearance.
+     */
+    public static Set<String> terms(final String text)
+    {
+        if (text == null || text.isEmpty())
+        {
+            return Collections.emptySet();
+        }
+        final Set<String> result = new LinkedHashSet<>();
+        final int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++)
+        {
+            final boolean word = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0)
+            {
+                start = i;
+            }
+            else if (!word && start >= 0)
+            {
+                result.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Growable sorted array of sequence numbers, the live entries are {@code sequences[start..end)}.
+     */
+    private static class Postings
+    {
+        long[] sequences = new long[4];
+        int start;
+        int end;
+
+        int size()
+        {
+            return end - start;
+        }
+
+        void add(final long sequence)
+        {
+            if (end == sequences.length)
+            {
+                if (start > sequences.length / 2)
+                {
+                    System.arraycopy(sequences, start, sequences, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                else
+                {
+                    sequences = Arrays.copyOf(sequences, sequences.length * 2);
+                }
+            }
+            sequences[end++] = sequence;
+        }
+
+        /**
+         * Returns true once the list is empty.
+         */
+        boolean removeBefore(final long sequence)
+        {
+            start = indexBefore(sequence) + 1;
+            return start == end;
+        }
+
+        /**
+         * Index of the newest entry lower than {@code sequence}, {@code start - 1} if there is none.
+         */
+        int indexBefore(final long sequence)
+        {
+            final int i = Arrays.binarySearch(sequences, start, end, sequence);
+            return (i >= 0 ? i : -i - 1) - 1;
+        }
+
+        boolean contains(final long sequence)
+        {
+            return Arrays.binarySearch(sequences, start, end, sequence) >= 0;
+        }
+    }
+}
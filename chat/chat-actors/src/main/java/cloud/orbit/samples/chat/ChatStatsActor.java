@@ -0,0 +1,117 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.concurrent.Task;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ChatStatsActor extends AbstractActor implements ChatStats
+{
+    static final String ID = "0";
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChatStatsActor.class);
+    private static final long reportMillis = Long.getLong("orbit.samples.chat.statsReportMillis", 10_000);
+    private static final String stage = ManagementFactory.getRuntimeMXBean().getName();
+    private static ScheduledExecutorService scheduler;
+
+    private final Map<String, Map<String, Long>> stages = new TreeMap<>();
+    private final Map<String, Long> reported = new HashMap<>();
+    private final Map<String, String> types = new TreeMap<>();
+
+    /**
+     * Starts reporting the metrics of this backend stage, once it is up.
+     */
+    static synchronized void start()
+    {
+        if (scheduler != null)
+        {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "chat-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(ChatStatsActor::reportStage, 0, reportMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void stop()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private static void reportStage()
+    {
+        try
+        {
+            Actor.getReference(ChatStats.class, ID).report(stage, ChatMetrics.snapshot(), ChatMetrics.types());
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Error reporting the metrics of this stage", e);
+        }
+    }
+
+    @Override
+    public Task<Void> report(final String stage, final Map<String, Long> metrics, final Map<String, String> types)
+    {
+        stages.put(stage, metrics);
+        reported.put(stage, System.currentTimeMillis());
+        this.types.putAll(types);
+        return Task.done();
+    }
+
+    @Override
+    public Task<Map<String, Map<String, Long>>> snapshot()
+    {
+        // the stages that missed three reports are gone
+        final long oldest = System.currentTimeMillis() - 3 * reportMillis;
+        reported.values().removeIf(time -> time < oldest);
+        stages.keySet().retainAll(reported.keySet());
+        return Task.fromValue(new TreeMap<>(stages));
+    }
+
+    @Override
+    public Task<Map<String, String>> types()
+    {
+        return Task.fromValue(new TreeMap<>(types));
+    }
+}
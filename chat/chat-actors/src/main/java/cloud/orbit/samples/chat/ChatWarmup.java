@@ -0,0 +1,133 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Activates the busiest rooms when a backend starts, and saves the rooms of a backend about to stop.
+ * <p>
+ * Both run at most {@code orbit.samples.chat.warmupParallelism} calls at a time, so a deploy doesn't
+ * swamp the storage with thousands of rooms loading or saving at once.
+ */
+public final class ChatWarmup
+{
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChatWarmup.class);
+    private static final LongAdder roomsWarmed = ChatMetrics.counter("chat.warmup.rooms");
+    private static final LongAdder roomsFlushed = ChatMetrics.counter("chat.shutdown.flushedRooms");
+
+    private static final int warmupRooms = Integer.getInteger("orbit.samples.chat.warmupRooms", 1000);
+    private static final int parallelism = Math.max(1, Integer.getInteger("orbit.samples.chat.warmupParallelism", 16));
+
+    private ChatWarmup()
+    {
+    }
+
+    /**
+     * Activates the {@code orbit.samples.chat.warmupRooms} busiest rooms, wherever the cluster places them.
+     */
+    public static Task<Void> warmHotRooms()
+    {
+        if (warmupRooms <= 0)
+        {
+            return Task.done();
+        }
+        final long start = System.currentTimeMillis();
+        return Actor.getReference(ChatHotRooms.class, ChatHotRoomsActor.ID).hottest(warmupRooms)
+                .thenCompose(rooms -> forEach(rooms, room -> Actor.getReference(Chat.class, room).getHistory(0), roomsWarmed)
+                        .thenRun(() -> logger.info("Activated " + rooms.size() + " hot chat rooms in "
+                                + (System.currentTimeMillis() - start) + " ms")))
+                .exceptionally(ex -> {
+                    // the rooms still activate on demand
+                    logger.warn("Error activating the hot chat rooms", ex);
+                    return null;
+                });
+    }
+
+    /**
+     * Saves the pending changes of the rooms active on this node, before it stops.
+     */
+    public static Task<Void> flushActiveRooms()
+    {
+        final List<String> rooms = new ArrayList<>(ChatActor.activeRooms());
+        final long start = System.currentTimeMillis();
+        return forEach(rooms, room -> Actor.getReference(Chat.class, room).flush(), roomsFlushed)
+                .thenRun(() -> logger.info("Saved " + rooms.size() + " chat rooms in "
+                        + (System.currentTimeMillis() - start) + " ms"));
+    }
+
+    /**
+     * Calls every room, {@code parallelism} chains of calls each starting the next one when its call completes.
+     * Failures are logged and don't stop the others.
+     */
+    private static Task<Void> forEach(final Collection<String> rooms, final Function<String, Task<?>> call, final LongAdder counter)
+    {
+        final List<String> pending = new ArrayList<>(rooms);
+        final AtomicInteger next = new AtomicInteger();
+        final List<Task<Void>> chains = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, pending.size()); i++)
+        {
+            final Task<Void> chain = new Task<>();
+            chains.add(chain);
+            callNext(pending, next, call, counter, chain);
+        }
+        return Task.allOf(chains);
+    }
+
+    private static void callNext(final List<String> rooms, final AtomicInteger next, final Function<String, Task<?>> call,
+                                 final LongAdder counter, final Task<Void> chain)
+    {
+        final int index = next.getAndIncrement();
+        if (index >= rooms.size())
+        {
+            chain.complete(null);
+            return;
+        }
+        final String room = rooms.get(index);
+        call.apply(room).whenComplete((result, ex) -> {
+            if (ex != null)
+            {
+                logger.warn("Error calling chat room " + room, ex);
+            }
+            else
+            {
+                counter.increment();
+            }
+            callNext(rooms, next, call, counter, chain);
+        });
+    }
+}
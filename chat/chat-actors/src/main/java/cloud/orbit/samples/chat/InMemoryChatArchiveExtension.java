@@ -0,0 +1,70 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Archive kept in the memory of the node, the blocks encoded with {@link ChatMessageCodec}.
+ */
+public class InMemoryChatArchiveExtension implements ChatArchiveExtension
+{
+    private final ConcurrentMap<String, byte[]> blocks = new ConcurrentHashMap<>();
+
+    @Override
+    public Task<Void> putBlock(final String room, final long block, final List<ChatMessageDto> messages)
+    {
+        blocks.put(key(room, block), ChatMessageCodec.encodeColumns(messages));
+        return Task.done();
+    }
+
+    @Override
+    public Task<List<ChatMessageDto>> getBlock(final String room, final long block)
+    {
+        final byte[] data = blocks.get(key(room, block));
+        return Task.fromValue(data == null ? Collections.emptyList() : ChatMessageCodec.decodeBatch(data));
+    }
+
+    @Override
+    public Task<Void> deleteBlock(final String room, final long block)
+    {
+        blocks.remove(key(room, block));
+        return Task.done();
+    }
+
+    private static String key(final String room, final long block)
+    {
+        return room + "::" + block;
+    }
+}
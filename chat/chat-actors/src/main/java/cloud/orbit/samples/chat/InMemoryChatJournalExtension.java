@@ -0,0 +1,76 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Journal kept in the memory of the node, the counterpart of the in memory storage extensions.
+ */
+public class InMemoryChatJournalExtension implements ChatJournalExtension
+{
+    private final ConcurrentMap<String, ConcurrentNavigableMap<Long, ChatMessageDto>> journals = new ConcurrentHashMap<>();
+
+    @Override
+    public Task<Void> append(final String room, final long sequence, final ChatMessageDto message)
+    {
+        journals.computeIfAbsent(room, r -> new ConcurrentSkipListMap<>()).put(sequence, message);
+        return Task.done();
+    }
+
+    @Override
+    public Task<SortedMap<Long, ChatMessageDto>> readAfter(final String room, final long sequence)
+    {
+        final ConcurrentNavigableMap<Long, ChatMessageDto> journal = journals.get(room);
+        if (journal == null)
+        {
+            return Task.fromValue(Collections.emptySortedMap());
+        }
+        return Task.fromValue(new TreeMap<>(journal.tailMap(sequence, false)));
+    }
+
+    @Override
+    public Task<Void> truncate(final String room, final long sequence)
+    {
+        final ConcurrentNavigableMap<Long, ChatMessageDto> journal = journals.get(room);
+        if (journal != null)
+        {
+            journal.headMap(sequence, true).clear();
+        }
+        return Task.done();
+    }
+}
@@ -0,0 +1,560 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of keyed records spread over memory mapped segment files.
+ * <p>
+ * Every change is appended to the active segment, an in memory index maps each key to the
+ * location of its latest record and is rebuilt by scanning the segments when the log is opened.
+ * Two kinds of records are kept: states, where only the latest record of a key is live,
+ * and journals, sequences of records per key that are dropped by truncation records.
+ * Segments whose live bytes fall under a threshold are compacted by copying their live
+ * records to the active segment and deleting the file.
+ * <p>
+ * Record layout: length, crc32, type, sequence, key length, key, payload.
+ * The length and crc cover everything after the crc, a zero length marks the end of a segment.
+ */
+public class SegmentLog
+{
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(SegmentLog.class);
+
+    private static final byte STATE_PUT = 1;
+    private static final byte STATE_DELETE = 2;
+    private static final byte JOURNAL_APPEND = 3;
+    private static final byte JOURNAL_TRUNCATE = 4;
+
+    private static final int PREFIX_SIZE = 4 + 4;
+    private static final int HEADER_SIZE = PREFIX_SIZE + 1 + 8 + 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, Location> states = new HashMap<>();
+    private final Map<String, Journal> journals = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+
+    private static class Segment
+    {
+        final int id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        long liveBytes;
+        boolean dirty;
+
+        Segment(final int id, final Path path, final MappedByteBuffer buffer)
+        {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Location
+    {
+        final Segment segment;
+        final int offset;
+        final int size;
+        final byte type;
+
+        Location(final Segment segment, final int offset, final int size, final byte type)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.type = type;
+        }
+    }
+
+    private static class Journal
+    {
+        final TreeMap<Long, Location> entries = new TreeMap<>();
+        Location truncation;
+        long truncatedSequence = Long.MIN_VALUE;
+    }
+
+    public SegmentLog(final Path directory, final int segmentSize)
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Maps the existing segments and rebuilds the index, stopping at the first torn record.
+     */
+    public synchronized void open() throws IOException
+    {
+        Files.createDirectories(directory);
+        final TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+        {
+            for (Path path : stream)
+            {
+                final String name = path.getFileName().toString();
+                files.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), path);
+            }
+        }
+        for (Map.Entry<Integer, Path> file : files.entrySet())
+        {
+            final Segment segment = new Segment(file.getKey(), file.getValue(), map(file.getValue(), (int) Files.size(file.getValue())));
+            segments.put(segment.id, segment);
+            recover(segment);
+            active = segment;
+        }
+        if (active == null)
+        {
+            active = newSegment(1, segmentSize);
+        }
+        logger.info("Opened segment log {} with {} segments, {} states and {} journals",
+                directory, segments.size(), states.size(), journals.size());
+    }
+
+    public synchronized void putState(final String key, final byte[] payload) throws IOException
+    {
+        final Location location = append(STATE_PUT, key, 0, payload);
+        release(states.put(key, location));
+    }
+
+    public synchronized void deleteState(final String key) throws IOException
+    {
+        final Location current = states.get(key);
+        if (current != null && current.type != STATE_DELETE)
+        {
+            // a tombstone keeps older records of the key from coming back when the segments are scanned
+            release(states.put(key, append(STATE_DELETE, key, 0, null)));
+        }
+    }
+
+    public synchronized byte[] getState(final String key)
+    {
+        final Location location = states.get(key);
+        return location == null || location.type == STATE_DELETE ? null : payload(location);
+    }
+
+    public synchronized void appendJournal(final String key, final long sequence, final byte[] payload) throws IOException
+    {
+        final Journal journal = journals.computeIfAbsent(key, k -> new Journal());
+        if (sequence > journal.truncatedSequence)
+        {
+            release(journal.entries.put(sequence, append(JOURNAL_APPEND, key, sequence, payload)));
+        }
+    }
+
+    public synchronized SortedMap<Long, byte[]> readJournal(final String key, final long sequence)
+    {
+        final SortedMap<Long, byte[]> result = new TreeMap<>();
+        final Journal journal = journals.get(key);
+        if (journal != null)
+        {
+            for (Map.Entry<Long, Location> entry : journal.entries.tailMap(sequence, false).entrySet())
+            {
+                result.put(entry.getKey(), payload(entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    public synchronized void truncateJournal(final String key, final long sequence) throws IOException
+    {
+        final Journal journal = journals.get(key);
+        if (journal == null || sequence <= journal.truncatedSequence)
+        {
+            return;
+        }
+        final Location truncation = append(JOURNAL_TRUNCATE, key, sequence, null);
+        applyTruncation(journal, sequence, truncation);
+    }
+
+    /**
+     * Forces the segments written since the previous call to disk.
+     */
+    public void sync()
+    {
+        final List<Segment> dirty = new ArrayList<>();
+        synchronized (this)
+        {
+            for (Segment segment : segments.values())
+            {
+                if (segment.dirty)
+                {
+                    segment.dirty = false;
+                    dirty.add(segment);
+                }
+            }
+        }
+        for (Segment segment : dirty)
+        {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Rewrites the sealed segments whose share of live bytes is below {@code threshold}.
+     *
+     * @return the number of compacted segments
+     */
+    public int compact(final double threshold) throws IOException
+    {
+        int compacted = 0;
+        final List<Segment> candidates = new ArrayList<>();
+        synchronized (this)
+        {
+            for (Segment segment : segments.values())
+            {
+                if (segment != active && segment.liveBytes < threshold * segment.writePosition)
+                {
+                    candidates.add(segment);
+                }
+            }
+        }
+        for (Segment segment : candidates)
+        {
+            synchronized (this)
+            {
+                relocateLiveRecords(segment);
+            }
+            // the copies must be durable before the originals go away
+            sync();
+            synchronized (this)
+            {
+                segments.remove(segment.id);
+            }
+            Files.deleteIfExists(segment.path);
+            compacted++;
+        }
+        return compacted;
+    }
+
+    public synchronized long getLiveBytes()
+    {
+        long live = 0;
+        for (Segment segment : segments.values())
+        {
+            live += segment.liveBytes;
+        }
+        return live;
+    }
+
+    public synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    private void relocateLiveRecords(final Segment segment) throws IOException
+    {
+        final boolean oldest = segments.firstKey() == segment.id;
+        int offset = 0;
+        while (offset + PREFIX_SIZE <= segment.writePosition)
+        {
+            final int length = segment.buffer.getInt(offset);
+            if (length == 0)
+            {
+                break;
+            }
+            final byte type = segment.buffer.get(offset + PREFIX_SIZE);
+            final long sequence = segment.buffer.getLong(offset + PREFIX_SIZE + 1);
+            final String key = key(segment, offset);
+            final int size = PREFIX_SIZE + length;
+            switch (type)
+            {
+                case STATE_PUT:
+                case STATE_DELETE:
+                {
+                    final Location current = states.get(key);
+                    if (isAt(current, segment, offset))
+                    {
+                        if (type == STATE_DELETE && oldest)
+                        {
+                            // nothing older left for the tombstone to hide
+                            states.remove(key);
+                        }
+                        else
+                        {
+                            states.put(key, copy(current));
+                        }
+                    }
+                    break;
+                }
+                case JOURNAL_APPEND:
+                {
+                    final Journal journal = journals.get(key);
+                    if (journal != null && isAt(journal.entries.get(sequence), segment, offset))
+                    {
+                        journal.entries.put(sequence, copy(journal.entries.get(sequence)));
+                    }
+                    break;
+                }
+                case JOURNAL_TRUNCATE:
+                {
+                    final Journal journal = journals.get(key);
+                    if (journal != null && isAt(journal.truncation, segment, offset))
+                    {
+                        if (oldest)
+                        {
+                            journal.truncation = null;
+                            if (journal.entries.isEmpty())
+                            {
+                                journals.remove(key);
+                            }
+                        }
+                        else
+                        {
+                            journal.truncation = copy(journal.truncation);
+                        }
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown record type " + type + " in " + segment.path + " at " + offset);
+            }
+            offset += size;
+        }
+    }
+
+    private static boolean isAt(final Location location, final Segment segment, final int offset)
+    {
+        return location != null && location.segment == segment && location.offset == offset;
+    }
+
+    private Location copy(final Location location) throws IOException
+    {
+        final ByteBuffer record = location.segment.buffer.duplicate();
+        record.position(location.offset).limit(location.offset + location.size);
+        final Location copy = appendRaw(record.slice(), location.type);
+        location.segment.liveBytes -= location.size;
+        return copy;
+    }
+
+    private void recover(final Segment segment)
+    {
+        final MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        boolean torn = false;
+        while (offset + PREFIX_SIZE <= buffer.capacity())
+        {
+            final int length = buffer.getInt(offset);
+            if (length == 0)
+            {
+                break;
+            }
+            if (length < HEADER_SIZE - PREFIX_SIZE || offset + PREFIX_SIZE + length > buffer.capacity()
+                    || buffer.getInt(offset + 4) != checksum(buffer, offset + PREFIX_SIZE, length))
+            {
+                logger.warn("Ignoring the torn tail of {} after offset {}", segment.path, offset);
+                torn = true;
+                break;
+            }
+            final byte type = buffer.get(offset + PREFIX_SIZE);
+            final long sequence = buffer.getLong(offset + PREFIX_SIZE + 1);
+            final String key = key(segment, offset);
+            final Location location = new Location(segment, offset, PREFIX_SIZE + length, type);
+            segment.liveBytes += location.size;
+            switch (type)
+            {
+                case STATE_PUT:
+                case STATE_DELETE:
+                    release(states.put(key, location));
+                    break;
+                case JOURNAL_APPEND:
+                {
+                    final Journal journal = journals.computeIfAbsent(key, k -> new Journal());
+                    if (sequence > journal.truncatedSequence)
+                    {
+                        release(journal.entries.put(sequence, location));
+                    }
+                    else
+                    {
+                        release(location);
+                    }
+                    break;
+                }
+                case JOURNAL_TRUNCATE:
+                {
+                    final Journal journal = journals.computeIfAbsent(key, k -> new Journal());
+                    if (sequence > journal.truncatedSequence)
+                    {
+                        applyTruncation(journal, sequence, location);
+                    }
+                    else
+                    {
+                        release(location);
+                    }
+                    break;
+                }
+                default:
+                    logger.warn("Unknown record type {} in {} at offset {}", type, segment.path, offset);
+                    release(location);
+            }
+            offset += location.size;
+        }
+        segment.writePosition = offset;
+        if (torn)
+        {
+            // new records go where the torn one was, clear its leftovers so they can't be mistaken for records
+            for (int i = offset; i < buffer.capacity(); i++)
+            {
+                buffer.put(i, (byte) 0);
+            }
+            segment.dirty = true;
+        }
+    }
+
+    private void applyTruncation(final Journal journal, final long sequence, final Location truncation)
+    {
+        final Iterator<Location> dropped = journal.entries.headMap(sequence, true).values().iterator();
+        while (dropped.hasNext())
+        {
+            release(dropped.next());
+            dropped.remove();
+        }
+        release(journal.truncation);
+        journal.truncation = truncation;
+        journal.truncatedSequence = sequence;
+    }
+
+    private void release(final Location location)
+    {
+        if (location != null)
+        {
+            location.segment.liveBytes -= location.size;
+        }
+    }
+
+    private Location append(final byte type, final String key, final long sequence, final byte[] payload) throws IOException
+    {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int payloadLength = payload != null ? payload.length : 0;
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + payloadLength);
+        record.putInt(record.capacity() - PREFIX_SIZE);
+        record.putInt(0);
+        record.put(type);
+        record.putLong(sequence);
+        record.putShort((short) keyBytes.length);
+        record.put(keyBytes);
+        if (payload != null)
+        {
+            record.put(payload);
+        }
+        record.putInt(4, checksum(record, PREFIX_SIZE, record.capacity() - PREFIX_SIZE));
+        record.flip();
+        return appendRaw(record, type);
+    }
+
+    private Location appendRaw(final ByteBuffer record, final byte type) throws IOException
+    {
+        final int size = record.remaining();
+        // keep room for the zero length that terminates the segment
+        if (active.writePosition + size + PREFIX_SIZE > active.buffer.capacity())
+        {
+            active = newSegment(active.id + 1, Math.max(segmentSize, size + PREFIX_SIZE));
+        }
+        final int offset = active.writePosition;
+        final ByteBuffer target = active.buffer.duplicate();
+        target.position(offset);
+        // the length goes in last, so a torn write never looks like a complete record
+        final ByteBuffer body = record.duplicate();
+        body.position(body.position() + 4);
+        target.position(offset + 4);
+        target.put(body);
+        active.buffer.putInt(offset, record.getInt(record.position()));
+        active.writePosition += size;
+        active.liveBytes += size;
+        active.dirty = true;
+        return new Location(active, offset, size, type);
+    }
+
+    private Segment newSegment(final int id, final int size) throws IOException
+    {
+        final Path path = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        final Segment segment = new Segment(id, path, map(path, size));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static MappedByteBuffer map(final Path path, final int size) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private int checksum(final ByteBuffer buffer, final int offset, final int length)
+    {
+        final ByteBuffer region = buffer.duplicate();
+        region.position(offset).limit(offset + length);
+        crc.reset();
+        crc.update(region);
+        return (int) crc.getValue();
+    }
+
+    private static String key(final Segment segment, final int offset)
+    {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        final int keyLength = buffer.getShort(offset + HEADER_SIZE - 2) & 0xFFFF;
+        final byte[] key = new byte[keyLength];
+        buffer.position(offset + HEADER_SIZE);
+        buffer.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] payload(final Location location)
+    {
+        final ByteBuffer buffer = location.segment.buffer.duplicate();
+        final int keyLength = buffer.getShort(location.offset + HEADER_SIZE - 2) & 0xFFFF;
+        final int start = location.offset + HEADER_SIZE + keyLength;
+        final byte[] payload = new byte[location.offset + location.size - start];
+        buffer.position(start);
+        buffer.get(payload);
+        return payload;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.extensions.json.ActorReferenceModule;
+import cloud.orbit.actors.runtime.DefaultDescriptorFactory;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.concurrent.Task;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durable, node local storage extension keeping the actor states in a {@link SegmentLog}.
+ * <p>
+ * States are stored as JSON like the {@code InMemoryJSONStorageExtension}, which it can replace in orbit.yaml.
+ * It also keeps the chat journal, so rooms survive a restart of the node with their latest messages,
+ * and the archived history blocks, which stay in the mapped segments rather than on the heap.
+ * Writes are acknowledged once a background fsync covering them has completed,
+ * every fsync covers all the writes made since the previous one.
+ * <p>
+ * The storage is local to the node: in a cluster with several backends
+ * a room activated on another node won't find its state here.
+ */
+public class SegmentLogStorageExtension implements StorageExtension, ChatJournalExtension, ChatArchiveExtension
+{
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(SegmentLogStorageExtension.class);
+    private static final LongAdder bytesWritten = ChatMetrics.counter("chat.segmentLog.bytesWritten");
+    private static final LongAdder fsyncs = ChatMetrics.counter("chat.segmentLog.fsyncs");
+    private static final LongAdder compactedSegments = ChatMetrics.counter("chat.segmentLog.compactedSegments");
+
+    private String directory = "data";
+    private int segmentSize = 64 * 1024 * 1024;
+    private long fsyncIntervalMillis = 10;
+    private boolean awaitFsync = true;
+    private long compactionIntervalMillis = 60_000;
+    private double compactionThreshold = 0.5;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ConcurrentLinkedQueue<Task<Void>> awaitingFsync = new ConcurrentLinkedQueue<>();
+    private SegmentLog log;
+    private ScheduledExecutorService executor;
+
+    public SegmentLogStorageExtension()
+    {
+        mapper.registerModule(new ActorReferenceModule(DefaultDescriptorFactory.get()));
+        mapper.setVisibility(mapper.getSerializationConfig().getDefaultVisibilityChecker()
+                .withFieldVisibility(JsonAutoDetect.Visibility.ANY)
+                .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withSetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withCreatorVisibility(JsonAutoDetect.Visibility.NONE));
+    }
+
+    @Override
+    public Task<?> start()
+    {
+        log = new SegmentLog(Paths.get(directory), segmentSize);
+        try
+        {
+            log.open();
+        }
+        catch (IOException e)
+        {
+            return failed(e);
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "chat-segment-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::fsync, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::compact, compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+        return Task.done();
+    }
+
+    @Override
+    public Task<?> stop()
+    {
+        if (executor != null)
+        {
+            executor.shutdown();
+            try
+            {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        fsync();
+        return Task.done();
+    }
+
+    @Override
+    public Task<Void> clearState(final RemoteReference<?> reference, final Object state)
+    {
+        try
+        {
+            log.deleteState(key(reference));
+            return durable();
+        }
+        catch (IOException e)
+        {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Task<Boolean> readState(final RemoteReference<?> reference, final Object state)
+    {
+        final byte[] data = log.getState(key(reference));
+        if (data == null)
+        {
+            return Task.fromValue(false);
+        }
+        try
+        {
+            mapper.readerForUpdating(state).readValue(data);
+            return Task.fromValue(true);
+        }
+        catch (IOException e)
+        {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Task<Void> writeState(final RemoteReference<?> reference, final Object state)
+    {
+        try
+        {
+            final byte[] data = mapper.writeValueAsBytes(state);
+            log.putState(key(reference), data);
+            bytesWritten.add(data.length);
+            return durable();
+        }
+        catch (IOException e)
+        {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Task<Void> append(final String room, final long sequence, final ChatMessageDto message)
+    {
+        try
+        {
+            final byte[] data = ChatMessageCodec.encode(message);
+            log.appendJournal(room, sequence, data);
+            bytesWritten.add(data.length);
+            return durable();
+        }
+        catch (IOException e)
+        {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Task<SortedMap<Long, ChatMessageDto>> readAfter(final String room, final long sequence)
+    {
+        final SortedMap<Long, ChatMessageDto> messages = new TreeMap<>();
+        try
+        {
+            for (Map.Entry<Long, byte[]> entry : log.readJournal(room, sequence).entrySet())
+            {
+                messages.put(entry.getKey(), decodeJournalEntry(entry.getValue()));
+            }
+            return Task.fromValue(messages);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Task<Void> truncate(final String room, final long sequence)
+    {
+        try
+        {
+            // losing a truncation only means replaying messages the snapshot already has, no need to wait for the fsync
+            log.truncateJournal(room, sequence);
+            return Task.done();
+        }
+        catch (IOException e)
+        {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Task<Void> putBlock(final String room, final long block, final List<ChatMessageDto> messages)
+    {
+        try
+        {
+            final byte[] data = ChatMessageCodec.encodeColumns(messages);
+            log.putState(archiveKey(room, block), data);
+            bytesWritten.add(data.length);
+            return durable();
+        }
+        catch (IOException e)
+        {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Task<List<ChatMessageDto>> getBlock(final String room, final long block)
+    {
+        final byte[] data = log.getState(archiveKey(room, block));
+        try
+        {
+            return Task.fromValue(data == null ? Collections.emptyList() : ChatMessageCodec.decodeBatch(data));
+        }
+        catch (RuntimeException e)
+        {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Task<Void> deleteBlock(final String room, final long block)
+    {
+        try
+        {
+            log.deleteState(archiveKey(room, block));
+            return Task.done();
+        }
+        catch (IOException e)
+        {
+            return failed(e);
+        }
+    }
+
+    private ChatMessageDto decodeJournalEntry(final byte[] data) throws IOException
+    {
+        // the first journals kept the messages as JSON objects
+        return data.length > 0 && data[0] == '{'
+                ? mapper.readValue(data, ChatMessageDto.class)
+                : ChatMessageCodec.decode(data);
+    }
+
+    private Task<Void> durable()
+    {
+        if (!awaitFsync)
+        {
+            return Task.done();
+        }
+        final Task<Void> task = new Task<>();
+        awaitingFsync.add(task);
+        return task;
+    }
+
+    private void fsync()
+    {
+        // only the writes queued before the sync are known to be covered by it
+        final List<Task<Void>> covered = new ArrayList<>();
+        for (Task<Void> task; (task = awaitingFsync.poll()) != null; )
+        {
+            covered.add(task);
+        }
+        try
+        {
+            log.sync();
+            fsyncs.increment();
+            covered.forEach(task -> task.complete(null));
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Error syncing the segment log", e);
+            covered.forEach(task -> task.completeExceptionally(e));
+        }
+    }
+
+    private void compact()
+    {
+        try
+        {
+            compactedSegments.add(log.compact(compactionThreshold));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.error("Error compacting the segment log", e);
+        }
+    }
+
+    private static String key(final RemoteReference<?> reference)
+    {
+        return RemoteReference.getInterfaceClass(reference).getName() + "::" + RemoteReference.getId(reference);
+    }
+
+    private static String archiveKey(final String room, final long block)
+    {
+        // can't clash with the state keys, which start with an interface name
+        return "archive::" + room + "::" + block;
+    }
+
+    private static <T> Task<T> failed(final Throwable cause)
+    {
+        final Task<T> task = new Task<>();
+        task.completeExceptionally(cause);
+        return task;
+    }
+
+    public String getDirectory()
+    {
+        return directory;
+    }
+
+    public void setDirectory(final String directory)
+    {
+        this.directory = directory;
+    }
+
+    public int getSegmentSize()
+    {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(final int segmentSize)
+    {
+        this.segmentSize = segmentSize;
+    }
+
+    public long getFsyncIntervalMillis()
+    {
+        return fsyncIntervalMillis;
+    }
+
+    public void setFsyncIntervalMillis(final long fsyncIntervalMillis)
+    {
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    public boolean isAwaitFsync()
+    {
+        return awaitFsync;
+    }
+
+    public void setAwaitFsync(final boolean awaitFsync)
+    {
+        this.awaitFsync = awaitFsync;
+    }
+
+    public long getCompactionIntervalMillis()
+    {
+        return compactionIntervalMillis;
+    }
+
+    public void setCompactionIntervalMillis(final long compactionIntervalMillis)
+    {
+        this.compactionIntervalMillis = compactionIntervalMillis;
+    }
+
+    public double getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
+
+    public void setCompactionThreshold(final double compactionThreshold)
+    {
+        this.compactionThreshold = compactionThreshold;
+    }
+}
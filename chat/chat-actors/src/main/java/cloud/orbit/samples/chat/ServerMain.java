@@ -31,13 +31,39 @@ package cloud.orbit.samples.chat;
 import cloud.orbit.container.Container;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ServerMain
 {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ServerMain.class);
+    private static final long shutdownFlushSeconds = Long.getLong("orbit.samples.chat.shutdownFlushSeconds", 30);
+
     public static void main(String[] args) throws ExecutionException, InterruptedException
     {
         final Container container = new Container();
         container.start().join();
+        ChatStatsActor.start();
+
+        // a planned shutdown saves the rooms in parallel, deactivating them then finds nothing left to write;
+        // the rooms not saved in time still are when the container deactivates them
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try
+            {
+                ChatWarmup.flushActiveRooms().get(shutdownFlushSeconds, TimeUnit.SECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                logger.warn("Chat rooms still saving after " + shutdownFlushSeconds + " s, stopping anyway");
+            }
+            catch (InterruptedException | ExecutionException e)
+            {
+                logger.warn("Error saving the chat rooms before stopping", e);
+            }
+            ChatStatsActor.stop();
+            container.stop().join();
+        }, "chat-shutdown"));
+        ChatWarmup.warmHotRooms().join();
     }
 }
 
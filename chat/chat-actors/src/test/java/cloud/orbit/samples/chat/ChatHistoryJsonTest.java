@@ -0,0 +1,138 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChatHistoryJsonTest
+{
+    public static class State
+    {
+        @JsonSerialize(using = ChatHistoryJson.Serializer.class)
+        @JsonDeserialize(using = ChatHistoryJson.Deserializer.class)
+        ChatHistory history = new ChatHistory();
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public ChatHistoryJsonTest()
+    {
+        // same visibility as the storage extensions
+        mapper.setVisibility(mapper.getSerializationConfig().getDefaultVisibilityChecker()
+                .withFieldVisibility(JsonAutoDetect.Visibility.ANY)
+                .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withSetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withCreatorVisibility(JsonAutoDetect.Visibility.NONE));
+    }
+
+    @Test
+    public void roundTrip() throws Exception
+    {
+        final State state = new State();
+        for (int i = 0; i < 300; i++)
+        {
+            state.history.add(message(i + 1, i % 7 == 0 ? null : "user" + (i % 5), i % 9 == 0 ? null : "message " + i, 1476700000000L - i * 10L));
+        }
+        final byte[] json = mapper.writeValueAsBytes(state);
+        assertTrue("history stored as deflated columns", json.length < ChatMessageCodec.encodeBatch(state.history, true).length);
+        assertSameMessages(state.history, mapper.readValue(json, State.class).history);
+    }
+
+    @Test
+    public void readsRowBatches() throws Exception
+    {
+        final List<ChatMessageDto> messages = new ArrayList<>();
+        messages.add(message(1, "alice", "hello", 1476700000000L));
+        messages.add(message(2, "bob", null, 1476700001000L));
+        final String json = "{\"history\":\"" + Base64.getEncoder().encodeToString(ChatMessageCodec.encodeBatch(messages, true)) + "\"}";
+        assertSameMessages(messages, mapper.readValue(json, State.class).history);
+    }
+
+    @Test
+    public void readsJsonArrays() throws Exception
+    {
+        final String json = "{\"history\":["
+                + "{\"when\":1476700000000,\"sender\":\"alice\",\"message\":\"hello\"},"
+                + "{\"when\":1476700001000,\"sender\":\"bob\",\"message\":\"hi\"}]}";
+        final ChatHistory history = mapper.readValue(json, State.class).history;
+        assertEquals(2, history.size());
+        assertEquals(1476700000000L, history.get(0).getWhenMillis());
+        assertEquals("alice", history.get(0).getSender());
+        assertEquals("hi", history.get(1).getMessage());
+        // numbered by the room once activated
+        assertEquals(0, history.get(1).getSequence());
+    }
+
+    @Test
+    public void keepsHistoriesLargerThanTheDefaultCapacity() throws Exception
+    {
+        final State state = new State();
+        state.history.setCapacity(ChatHistory.DEFAULT_CAPACITY * 2);
+        for (int i = 0; i < ChatHistory.DEFAULT_CAPACITY + 10; i++)
+        {
+            state.history.add(message(i + 1, "user", "message " + i, i));
+        }
+        assertSameMessages(state.history, mapper.readValue(mapper.writeValueAsBytes(state), State.class).history);
+    }
+
+    private static ChatMessageDto message(final long sequence, final String sender, final String text, final long when)
+    {
+        final ChatMessageDto message = new ChatMessageDto();
+        message.setSequence(sequence);
+        message.setSender(sender);
+        message.setMessage(text);
+        message.setWhenMillis(when);
+        return message;
+    }
+
+    private static void assertSameMessages(final List<ChatMessageDto> expected, final List<ChatMessageDto> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals(expected.get(i).getSequence(), actual.get(i).getSequence());
+            assertEquals(expected.get(i).getWhenMillis(), actual.get(i).getWhenMillis());
+            assertEquals(expected.get(i).getSender(), actual.get(i).getSender());
+            assertEquals(expected.get(i).getMessage(), actual.get(i).getMessage());
+        }
+    }
+}
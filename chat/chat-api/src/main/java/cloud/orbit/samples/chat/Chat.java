@@ -40,9 +40,55 @@ public interface Chat extends Actor
     @OneWay
     Task<Void> say(ChatMessageDto message);
 
+    /**
+     * Says the messages in order, observers get them in a single call.
+     */
+    @OneWay
+    Task<Void> sayBatch(List<ChatMessageDto> messages);
+
     Task<Boolean> join(ChatObserver observer);
 
+    /**
+     * Joins an observer that stays registered only while its frontend renews the {@link ChatLease} {@code lease}.
+     */
+    Task<Boolean> joinWithLease(ChatObserver observer, String lease);
+
     Task<Boolean> leave(ChatObserver observer);
 
+    /**
+     * Lists and unlists members present in the room through {@code observer}, the observer of their frontend.
+     * <p>
+     * The observers get the changes coalesced over {@code orbit.samples.chat.presenceWindowMillis}
+     * with {@link ChatObserver#receivePresence}. A member present through several observers is listed once,
+     * and the members of an observer leaving the room leave with it.
+     */
+    @OneWay
+    Task<Void> updatePresence(ChatObserver observer, List<String> joined, List<String> left);
+
+    /**
+     * Names of the members present in the room, sorted.
+     */
+    Task<List<String>> getPresence();
+
     Task<List<ChatMessageDto>> getHistory(int messageCount);
+
+    /**
+     * Messages said after the one with the given sequence number, oldest first.
+     * <p>
+     * When more than {@code maxMessages} were said since, only the newest {@code maxMessages} are returned,
+     * callers can tell by the first sequence number not following the one they asked for.
+     */
+    Task<List<ChatMessageDto>> getHistorySince(long sequence, int maxMessages);
+
+    /**
+     * Messages holding every term of the query, said by {@code sender} unless it is null, newest first.
+     * <p>
+     * The next page starts before the sequence number of the last message of a page, 0 starts with the newest.
+     */
+    Task<List<ChatMessageDto>> search(String query, String sender, long beforeSequence, int maxResults);
+
+    /**
+     * Saves the changes the room hasn't saved yet, a backend about to stop calls it on all its rooms.
+     */
+    Task<Void> flush();
 }
@@ -0,0 +1,533 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary format of the chat messages, used on the wire and for the persisted history.
+ * <p>
+ * Timestamps are varint encoded epoch millis and strings are length prefixed UTF-8.
+ * Since version 2 messages carry their sequence number in the room, delta encoded in batches.
+ * Batches can store the senders once in a dictionary and refer to them by index,
+ * which pays off for histories where a handful of people say most of the messages.
+ * <p>
+ * Since version 3 batches can also be stored a column at a time: the sender dictionary, then the sequence
+ * and timestamp deltas, the sender indexes, the message lengths and finally the message texts back to back.
+ * Columns of similar values compress far better than interleaved rows, so once they reach
+ * {@value #MIN_DEFLATED_BYTES} bytes the columns are deflated as a single block, unless that doesn't make them smaller.
+ * <p>
+ * Everything starts with a format version, readers keep accepting the older versions.
+ */
+public final class ChatMessageCodec
+{
+    public static final int VERSION = 3;
+
+    private static final int FLAG_SENDER_DICTIONARY = 1;
+    private static final int FLAG_COLUMNS = 2;
+    private static final int FLAG_DEFLATED = 4;
+    private static final int MIN_DEFLATED_BYTES = 512;
+    // deflate can't do better than about 1:1032
+    private static final int MAX_INFLATE_RATIO = 1100;
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private ChatMessageCodec()
+    {
+    }
+
+    public static byte[] encode(final ChatMessageDto message)
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try
+        {
+            writeMessage(new DataOutputStream(bytes), message);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static ChatMessageDto decode(final byte[] data)
+    {
+        final ChatMessageDto message = new ChatMessageDto();
+        try
+        {
+            readMessage(new DataInputStream(new ByteArrayInputStream(data)), message);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return message;
+    }
+
+    public static byte[] encodeBatch(final List<ChatMessageDto> messages, final boolean senderDictionary)
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + messages.size() * 48);
+        try
+        {
+            writeBatch(new DataOutputStream(bytes), messages, senderDictionary);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes the messages a column at a time, see {@link #writeColumns}.
+     */
+    public static byte[] encodeColumns(final List<ChatMessageDto> messages)
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + messages.size() * 24);
+        try
+        {
+            writeColumns(new DataOutputStream(bytes), messages);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the batches of all the versions, whether stored by rows or by columns.
+     */
+    public static List<ChatMessageDto> decodeBatch(final byte[] data)
+    {
+        final List<ChatMessageDto> messages = new ArrayList<>();
+        try
+        {
+            readBatch(new DataInputStream(new ByteArrayInputStream(data)), messages);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return messages;
+    }
+
+    public static void writeMessage(final DataOutput out, final ChatMessageDto message) throws IOException
+    {
+        out.writeByte(VERSION);
+        writeVarLong(out, message.getWhenMillis());
+        writeVarLong(out, message.getSequence());
+        writeString(out, message.getSender());
+        writeString(out, message.getMessage());
+    }
+
+    public static void readMessage(final DataInput in, final ChatMessageDto message) throws IOException
+    {
+        final int version = checkVersion(in.readUnsignedByte());
+        message.setWhenMillis(readVarLong(in));
+        if (version >= 2)
+        {
+            message.setSequence(readVarLong(in));
+        }
+        message.setSender(readString(in));
+        message.setMessage(readString(in));
+    }
+
+    public static void writeBatch(final DataOutput out, final List<ChatMessageDto> messages, final boolean senderDictionary) throws IOException
+    {
+        out.writeByte(VERSION);
+        out.writeByte(senderDictionary ? FLAG_SENDER_DICTIONARY : 0);
+        final int count = messages.size();
+        writeVarLong(out, count);
+        final Map<String, Integer> senders = senderDictionary ? writeSenderDictionary(out, messages) : null;
+        long previousSequence = 0;
+        for (int i = 0; i < count; i++)
+        {
+            final ChatMessageDto message = messages.get(i);
+            writeVarLong(out, message.getWhenMillis());
+            writeSignedVarLong(out, message.getSequence() - previousSequence);
+            previousSequence = message.getSequence();
+            if (senders != null)
+            {
+                writeVarLong(out, senders.get(message.getSender()));
+            }
+            else
+            {
+                writeString(out, message.getSender());
+            }
+            writeString(out, message.getMessage());
+        }
+    }
+
+    /**
+     * Writes the messages as a batch stored by columns, read back by {@link #readBatch}.
+     */
+    public static void writeColumns(final DataOutput out, final List<ChatMessageDto> messages) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + messages.size() * 48);
+        writeColumnData(new DataOutputStream(bytes), messages);
+        final byte[] columns = bytes.toByteArray();
+        final byte[] deflated = columns.length >= MIN_DEFLATED_BYTES ? deflate(columns) : null;
+        out.writeByte(VERSION);
+        if (deflated != null)
+        {
+            out.writeByte(FLAG_COLUMNS | FLAG_DEFLATED);
+            writeVarLong(out, columns.length);
+            writeVarLong(out, deflated.length);
+            out.write(deflated);
+        }
+        else
+        {
+            out.writeByte(FLAG_COLUMNS);
+            out.write(columns);
+        }
+    }
+
+    private static void writeColumnData(final DataOutput out, final List<ChatMessageDto> messages) throws IOException
+    {
+        final int count = messages.size();
+        writeVarLong(out, count);
+        final Map<String, Integer> senders = writeSenderDictionary(out, messages);
+        long previous = 0;
+        for (int i = 0; i < count; i++)
+        {
+            final long sequence = messages.get(i).getSequence();
+            writeSignedVarLong(out, sequence - previous);
+            previous = sequence;
+        }
+        previous = 0;
+        for (int i = 0; i < count; i++)
+        {
+            // the first one is the only full timestamp
+            final long when = messages.get(i).getWhenMillis();
+            writeSignedVarLong(out, when - previous);
+            previous = when;
+        }
+        for (int i = 0; i < count; i++)
+        {
+            writeVarLong(out, senders.get(messages.get(i).getSender()));
+        }
+        final byte[][] texts = new byte[count][];
+        for (int i = 0; i < count; i++)
+        {
+            final String text = messages.get(i).getMessage();
+            texts[i] = text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, texts[i] == null ? 0 : texts[i].length + 1L);
+        }
+        for (byte[] text : texts)
+        {
+            if (text != null)
+            {
+                out.write(text);
+            }
+        }
+    }
+
+    private static void readColumnData(final DataInput in, final List<ChatMessageDto> messages) throws IOException
+    {
+        final int count = readLength(in);
+        final String[] dictionary = readSenderDictionary(in, count);
+        final int first = messages.size();
+        long sequence = 0;
+        for (int i = 0; i < count; i++)
+        {
+            final ChatMessageDto message = new ChatMessageDto();
+            sequence += readSignedVarLong(in);
+            message.setSequence(sequence);
+            messages.add(message);
+        }
+        long when = 0;
+        for (int i = 0; i < count; i++)
+        {
+            when += readSignedVarLong(in);
+            messages.get(first + i).setWhenMillis(when);
+        }
+        for (int i = 0; i < count; i++)
+        {
+            messages.get(first + i).setSender(sender(dictionary, readLength(in)));
+        }
+        final int[] lengths = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            lengths[i] = readLength(in);
+        }
+        for (int i = 0; i < count; i++)
+        {
+            if (lengths[i] != 0)
+            {
+                final byte[] bytes = new byte[lengths[i] - 1];
+                in.readFully(bytes);
+                messages.get(first + i).setMessage(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * The deflated data, or null when it isn't smaller.
+     */
+    private static byte[] deflate(final byte[] data)
+    {
+        final Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        final byte[] buffer = new byte[data.length];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length)
+        {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return deflater.finished() && length < data.length ? Arrays.copyOf(buffer, length) : null;
+    }
+
+    private static byte[] inflate(final DataInput in) throws IOException
+    {
+        final int length = readLength(in);
+        final int deflatedLength = readLength(in);
+        if (length > (long) deflatedLength * MAX_INFLATE_RATIO)
+        {
+            throw new IOException("Can't inflate " + deflatedLength + " bytes into " + length);
+        }
+        final byte[] deflated = new byte[deflatedLength];
+        in.readFully(deflated);
+        final Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(deflated);
+        final byte[] data = new byte[length];
+        int inflated = 0;
+        try
+        {
+            while (inflated < length && !inflater.finished())
+            {
+                final int n = inflater.inflate(data, inflated, length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                inflated += n;
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Malformed deflated columns", e);
+        }
+        if (inflated != length || !inflater.finished())
+        {
+            throw new IOException("Inflated " + inflated + " bytes instead of " + length);
+        }
+        return data;
+    }
+
+    public static void readBatch(final DataInput in, final List<ChatMessageDto> messages) throws IOException
+    {
+        final int version = checkVersion(in.readUnsignedByte());
+        final int flags = in.readUnsignedByte();
+        if ((flags & FLAG_DEFLATED) != 0)
+        {
+            readColumnData(new DataInputStream(new ByteArrayInputStream(inflate(in))), messages);
+            return;
+        }
+        if ((flags & FLAG_COLUMNS) != 0)
+        {
+            readColumnData(in, messages);
+            return;
+        }
+        final int count = readLength(in);
+        final String[] dictionary = (flags & FLAG_SENDER_DICTIONARY) != 0 ? readSenderDictionary(in, count) : null;
+        long sequence = 0;
+        for (int i = 0; i < count; i++)
+        {
+            final ChatMessageDto message = new ChatMessageDto();
+            message.setWhenMillis(readVarLong(in));
+            if (version >= 2)
+            {
+                sequence += readSignedVarLong(in);
+                message.setSequence(sequence);
+            }
+            if (dictionary != null)
+            {
+                message.setSender(sender(dictionary, readLength(in)));
+            }
+            else
+            {
+                message.setSender(readString(in));
+            }
+            message.setMessage(readString(in));
+            messages.add(message);
+        }
+    }
+
+    /**
+     * Writes the distinct senders in order of appearance, returns their indexes.
+     */
+    private static Map<String, Integer> writeSenderDictionary(final DataOutput out, final List<ChatMessageDto> messages) throws IOException
+    {
+        final Map<String, Integer> senders = new HashMap<>();
+        final List<String> dictionary = new ArrayList<>();
+        for (int i = 0, count = messages.size(); i < count; i++)
+        {
+            final String sender = messages.get(i).getSender();
+            if (!senders.containsKey(sender))
+            {
+                senders.put(sender, dictionary.size());
+                dictionary.add(sender);
+            }
+        }
+        writeVarLong(out, dictionary.size());
+        for (String sender : dictionary)
+        {
+            writeString(out, sender);
+        }
+        return senders;
+    }
+
+    private static String[] readSenderDictionary(final DataInput in, final int count) throws IOException
+    {
+        final int size = readLength(in);
+        if (size > count)
+        {
+            // checked before allocating it, a corrupted size could be anything
+            throw new IOException("Dictionary of " + size + " senders for " + count + " messages");
+        }
+        final String[] dictionary = new String[size];
+        for (int i = 0; i < dictionary.length; i++)
+        {
+            dictionary[i] = readString(in);
+        }
+        return dictionary;
+    }
+
+    private static String sender(final String[] dictionary, final int index) throws IOException
+    {
+        if (index >= dictionary.length)
+        {
+            throw new IOException("Sender index " + index + " outside of a dictionary of " + dictionary.length);
+        }
+        return dictionary[index];
+    }
+
+    private static int checkVersion(final int version) throws IOException
+    {
+        if (version < 1 || version > VERSION)
+        {
+            throw new IOException("Unsupported chat message format version: " + version);
+        }
+        return version;
+    }
+
+    static void writeString(final DataOutput out, final String value) throws IOException
+    {
+        if (value == null)
+        {
+            writeVarLong(out, 0);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    static String readString(final DataInput in) throws IOException
+    {
+        final int length = readLength(in);
+        if (length == 0)
+        {
+            return null;
+        }
+        final byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarLong(final DataOutput out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(final DataInput in) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Zigzag varint, small negative values stay short.
+     */
+    static void writeSignedVarLong(final DataOutput out, final long value) throws IOException
+    {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readSignedVarLong(final DataInput in) throws IOException
+    {
+        final long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int readLength(final DataInput in) throws IOException
+    {
+        final long length = readVarLong(in);
+        if (length < 0 || length > Integer.MAX_VALUE)
+        {
+            throw new IOException("Invalid length: " + length);
+        }
+        return (int) length;
+    }
+}
@@ -28,25 +28,51 @@
 
 package cloud.orbit.samples.chat;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Date;
 
-public class ChatMessageDto implements Serializable
+public class ChatMessageDto implements Externalizable
 {
 	private static final long serialVersionUID = 1L;
-	private Date when;
+	private long when;
+    private long sequence;
     private String sender;
     private String message;
 
     public Date getWhen()
     {
-        // wasteful clone just to keep code analysers happy
-        return new Date(when.getTime());
+        return new Date(when);
     }
 
     public void setWhen(final Date when)
     {
-        this.when = new Date(when.getTime());
+        this.when = when.getTime();
+    }
+
+    public long getWhenMillis()
+    {
+        return when;
+    }
+
+    public void setWhenMillis(final long when)
+    {
+        this.when = when;
+    }
+
+    /**
+     * Position of the message in its room, starting at 1; 0 until the room accepted it.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    public void setSequence(final long sequence)
+    {
+        this.sequence = sequence;
     }
 
     public String getSender()
@@ -68,4 +94,16 @@ public class ChatMessageDto implements Serializable
     {
         this.message = message;
     }
+
+    @Override
+    public void writeExternal(final ObjectOutput out) throws IOException
+    {
+        ChatMessageCodec.writeMessage(out, this);
+    }
+
+    @Override
+    public void readExternal(final ObjectInput in) throws IOException
+    {
+        ChatMessageCodec.readMessage(in, this);
+    }
 }
@@ -0,0 +1,116 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.samples.metrics.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process wide registry of the chat counters.
+ * <p>
+ * Counters are striped {@link LongAdder}s, cheap enough to update on every message.
+ * Callers are expected to look their counters up once and keep the reference.
+ * Gauges are read when a snapshot is taken; the ones tied to something short lived,
+ * like a chat room, are removed by their owner with {@link #unregister(String, LongSupplier)}.
+ * Histograms appear in the snapshots as their count, sum, maximum and 50th, 99th and 99.9th percentiles.
+ */
+public final class ChatMetrics
+{
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private ChatMetrics()
+    {
+    }
+
+    public static LongAdder counter(final String name)
+    {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public static Histogram histogram(final String name)
+    {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    public static void register(final String name, final LongSupplier gauge)
+    {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Removes the gauge only if it is still the one registered under that name.
+     */
+    public static void unregister(final String name, final LongSupplier gauge)
+    {
+        gauges.remove(name, gauge);
+    }
+
+    public static Map<String, Long> snapshot()
+    {
+        final Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> {
+            snapshot.put(name + ".count", histogram.getCount());
+            snapshot.put(name + ".sum", histogram.getSum());
+            snapshot.put(name + ".max", histogram.getMax());
+            snapshot.put(name + ".p50", histogram.percentile(0.5));
+            snapshot.put(name + ".p99", histogram.percentile(0.99));
+            snapshot.put(name + ".p999", histogram.percentile(0.999));
+        });
+        return snapshot;
+    }
+
+    /**
+     * The Prometheus type of each metric of the snapshot.
+     */
+    public static Map<String, String> types()
+    {
+        final Map<String, String> types = new TreeMap<>();
+        counters.keySet().forEach(name -> types.put(name, "counter"));
+        gauges.keySet().forEach(name -> types.put(name, "gauge"));
+        histograms.keySet().forEach(name -> {
+            types.put(name + ".count", "counter");
+            types.put(name + ".sum", "counter");
+            types.put(name + ".max", "gauge");
+            types.put(name + ".p50", "gauge");
+            types.put(name + ".p99", "gauge");
+            types.put(name + ".p999", "gauge");
+        });
+        return types;
+    }
+}
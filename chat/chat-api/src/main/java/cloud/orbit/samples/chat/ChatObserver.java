@@ -33,8 +33,22 @@ import cloud.orbit.actors.ActorObserver;
 import cloud.orbit.actors.annotation.OneWay;
 import cloud.orbit.concurrent.Task;
 
+import java.util.List;
+
 public interface ChatObserver extends ActorObserver
 {
     @OneWay
     Task<Void> receiveMessage(ChatMessageDto message);
+
+    /**
+     * Consecutive messages of the room, oldest first.
+     */
+    @OneWay
+    Task<Void> receiveMessages(List<ChatMessageDto> messages);
+
+    /**
+     * Members that joined and left the room since the previous call; one that came and went in between is in neither.
+     */
+    @OneWay
+    Task<Void> receivePresence(List<String> joined, List<String> left);
 }
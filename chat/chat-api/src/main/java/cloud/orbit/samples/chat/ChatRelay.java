@@ -0,0 +1,71 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.annotation.OneWay;
+import cloud.orbit.concurrent.Task;
+
+import java.util.List;
+
+/**
+ * Fan-out shard of a large chat room: relays the room's messages to a share of its observers.
+ * <p>
+ * Only called by the room's {@link Chat} actor and by the other shards of the room.
+ */
+public interface ChatRelay extends Actor
+{
+    @OneWay
+    Task<Void> relay(ChatMessageDto message);
+
+    @OneWay
+    Task<Void> relayBatch(List<ChatMessageDto> messages);
+
+    @OneWay
+    Task<Void> relayPresence(List<String> joined, List<String> left);
+
+    Task<Void> join(ChatObserver observer);
+
+    Task<Void> leave(ChatObserver observer);
+
+    /**
+     * Holds the messages back until the shard this one splits from hands its members over with {@link #adopt}.
+     */
+    Task<Void> awaitMembers();
+
+    /**
+     * Takes over members that were sent every message up to {@code lastSequence} by their previous shard.
+     */
+    Task<Void> adopt(List<ChatObserver> members, long lastSequence);
+
+    /**
+     * Hands the members whose hash falls into the new shard {@code index} at {@code depth} over to it.
+     */
+    Task<Void> split(int index, int depth);
+}
@@ -0,0 +1,310 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChatMessageCodecTest
+{
+    // batch flags, as written by the codec
+    private static final int COLUMNS = 2;
+    private static final int DEFLATED = 4;
+
+    @Test
+    public void messageRoundTrip()
+    {
+        final ChatMessageDto message = message(7, "alice", "hello", 1476700000123L);
+        assertMessagesEqual(Collections.singletonList(message),
+                Collections.singletonList(ChatMessageCodec.decode(ChatMessageCodec.encode(message))));
+    }
+
+    @Test
+    public void messageWithNulls()
+    {
+        final ChatMessageDto message = message(1, null, null, 0);
+        assertMessagesEqual(Collections.singletonList(message),
+                Collections.singletonList(ChatMessageCodec.decode(ChatMessageCodec.encode(message))));
+    }
+
+    @Test
+    public void rowBatchRoundTrip()
+    {
+        final List<ChatMessageDto> messages = messages(50);
+        assertMessagesEqual(messages, ChatMessageCodec.decodeBatch(ChatMessageCodec.encodeBatch(messages, true)));
+        assertMessagesEqual(messages, ChatMessageCodec.decodeBatch(ChatMessageCodec.encodeBatch(messages, false)));
+    }
+
+    @Test
+    public void emptyBatches()
+    {
+        final List<ChatMessageDto> none = Collections.emptyList();
+        assertEquals(0, ChatMessageCodec.decodeBatch(ChatMessageCodec.encodeBatch(none, true)).size());
+        assertEquals(0, ChatMessageCodec.decodeBatch(ChatMessageCodec.encodeColumns(none)).size());
+    }
+
+    @Test
+    public void smallColumnBatchIsNotDeflated()
+    {
+        final List<ChatMessageDto> messages = messages(3);
+        final byte[] encoded = ChatMessageCodec.encodeColumns(messages);
+        assertEquals(ChatMessageCodec.VERSION, encoded[0]);
+        assertEquals(COLUMNS, encoded[1]);
+        assertMessagesEqual(messages, ChatMessageCodec.decodeBatch(encoded));
+    }
+
+    @Test
+    public void largeColumnBatchIsDeflated()
+    {
+        final List<ChatMessageDto> messages = messages(500);
+        final byte[] encoded = ChatMessageCodec.encodeColumns(messages);
+        assertEquals(COLUMNS | DEFLATED, encoded[1]);
+        assertTrue(encoded.length < ChatMessageCodec.encodeBatch(messages, true).length / 2);
+        assertMessagesEqual(messages, ChatMessageCodec.decodeBatch(encoded));
+    }
+
+    @Test
+    public void incompressibleColumnsStayAsTheyAre()
+    {
+        final Random random = new Random(42);
+        final List<ChatMessageDto> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            final char[] text = new char[100];
+            for (int j = 0; j < text.length; j++)
+            {
+                text[j] = (char) (0x4E00 + random.nextInt(0x5000));
+            }
+            messages.add(message(i + 1, "user" + i, new String(text), random.nextLong()));
+        }
+        final byte[] encoded = ChatMessageCodec.encodeColumns(messages);
+        assertMessagesEqual(messages, ChatMessageCodec.decodeBatch(encoded));
+    }
+
+    @Test
+    public void timestampsGoingBackwards()
+    {
+        final List<ChatMessageDto> messages = Arrays.asList(
+                message(1, "a", "one", 1476700000000L),
+                message(2, "b", "two", 1476600000000L),
+                message(3, "a", "three", 0),
+                message(4, "c", "four", Long.MAX_VALUE),
+                message(5, "a", "five", 1476700000000L));
+        assertMessagesEqual(messages, ChatMessageCodec.decodeBatch(ChatMessageCodec.encodeColumns(messages)));
+        assertMessagesEqual(messages, ChatMessageCodec.decodeBatch(ChatMessageCodec.encodeBatch(messages, true)));
+    }
+
+    @Test
+    public void sequencesWithGaps()
+    {
+        final List<ChatMessageDto> messages = Arrays.asList(
+                message(10, "a", "x", 1), message(0, "a", "y", 2), message(1000, "b", "z", 3));
+        assertMessagesEqual(messages, ChatMessageCodec.decodeBatch(ChatMessageCodec.encodeColumns(messages)));
+    }
+
+    @Test
+    public void messageListRoundTrip() throws Exception
+    {
+        for (int size : new int[]{ 0, 1, 5, 300 })
+        {
+            final ChatMessageList list = new ChatMessageList(messages(size));
+            assertMessagesEqual(list, javaRoundTrip(list));
+        }
+    }
+
+    @Test
+    public void messageListSendsItsCurrentContents() throws Exception
+    {
+        final ChatMessageList list = new ChatMessageList(messages(10));
+        javaRoundTrip(list);
+        list.set(0, message(99, "mallory", "replaced", 5));
+        list.get(1).setSequence(1234);
+        assertMessagesEqual(list, javaRoundTrip(list));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void truncatedRowBatch()
+    {
+        final byte[] encoded = ChatMessageCodec.encodeBatch(messages(10), true);
+        ChatMessageCodec.decodeBatch(Arrays.copyOf(encoded, encoded.length - 3));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void truncatedColumnBatch()
+    {
+        final byte[] encoded = ChatMessageCodec.encodeColumns(messages(3));
+        ChatMessageCodec.decodeBatch(Arrays.copyOf(encoded, encoded.length - 3));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void truncatedDeflatedBatch()
+    {
+        final byte[] encoded = ChatMessageCodec.encodeColumns(messages(500));
+        ChatMessageCodec.decodeBatch(Arrays.copyOf(encoded, encoded.length - 10));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void corruptedDeflatedBatch()
+    {
+        final byte[] encoded = ChatMessageCodec.encodeColumns(messages(500));
+        encoded[encoded.length / 2] ^= 0x5A;
+        ChatMessageCodec.decodeBatch(encoded);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void unsupportedVersion()
+    {
+        final byte[] encoded = ChatMessageCodec.encodeColumns(messages(3));
+        encoded[0] = (byte) (ChatMessageCodec.VERSION + 1);
+        ChatMessageCodec.decodeBatch(encoded);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void senderIndexOutsideOfTheDictionary()
+    {
+        // one message, a dictionary of one null sender, sequence 1, time 1, sender index 5, null text
+        ChatMessageCodec.decodeBatch(new byte[]{ ChatMessageCodec.VERSION, COLUMNS, 1, 1, 0, 2, 2, 5, 0 });
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void dictionaryLargerThanTheBatch()
+    {
+        ChatMessageCodec.decodeBatch(new byte[]{ ChatMessageCodec.VERSION, COLUMNS, 1, 100, 0 });
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void oversizedInflateLength()
+    {
+        // claims 2^31 - 1 bytes inflated out of 8 deflated ones
+        ChatMessageCodec.decodeBatch(new byte[]{ ChatMessageCodec.VERSION, COLUMNS | DEFLATED,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 8, 0, 0, 0, 0, 0, 0, 0, 0 });
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void inflateLengthNotMatchingTheData() throws IOException
+    {
+        final byte[] encoded = ChatMessageCodec.encodeColumns(messages(500));
+        // the varint after the flags is the inflated length, make it claim one byte more
+        final ByteArrayInputStream in = new ByteArrayInputStream(encoded, 2, encoded.length - 2);
+        final long length = ChatMessageCodec.readVarLong(new DataInputStream(in));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(out);
+        data.write(encoded, 0, 2);
+        ChatMessageCodec.writeVarLong(data, length + 1);
+        data.write(encoded, encoded.length - in.available(), in.available());
+        ChatMessageCodec.decodeBatch(out.toByteArray());
+    }
+
+    @Test
+    public void readsTheOlderVersions()
+    {
+        // version 1 row batch without dictionary: no sequence numbers
+        final byte[] version1 = { 1, 0, 1, 5, 2, 'a', 3, 'h', 'i' };
+        final List<ChatMessageDto> messages = ChatMessageCodec.decodeBatch(version1);
+        assertEquals(1, messages.size());
+        assertEquals(5, messages.get(0).getWhenMillis());
+        assertEquals(0, messages.get(0).getSequence());
+        assertEquals("a", messages.get(0).getSender());
+        assertEquals("hi", messages.get(0).getMessage());
+        // version 2 row batch with dictionary
+        final byte[] version2 = { 2, 1, 1, 1, 2, 'a', 5, 6, 0, 3, 'h', 'i' };
+        final ChatMessageDto message = ChatMessageCodec.decodeBatch(version2).get(0);
+        assertEquals(3, message.getSequence());
+        assertEquals("a", message.getSender());
+        assertEquals("hi", message.getMessage());
+    }
+
+    static List<ChatMessageDto> messages(final int count)
+    {
+        final List<ChatMessageDto> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            messages.add(message(i + 1,
+                    i % 17 == 3 ? null : "user" + (i % 8),
+                    i % 13 == 5 ? null : i % 11 == 4 ? "" : "message number " + i + " é中",
+                    1476700000000L + i * 250L - (i % 5 == 2 ? 10_000 : 0)));
+        }
+        return messages;
+    }
+
+    static ChatMessageDto message(final long sequence, final String sender, final String text, final long when)
+    {
+        final ChatMessageDto message = new ChatMessageDto();
+        message.setSequence(sequence);
+        message.setSender(sender);
+        message.setMessage(text);
+        message.setWhenMillis(when);
+        return message;
+    }
+
+    static void assertMessagesEqual(final List<ChatMessageDto> expected, final List<ChatMessageDto> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertArrayEquals("message " + i, fields(expected.get(i)), fields(actual.get(i)));
+        }
+    }
+
+    private static Object[] fields(final ChatMessageDto message)
+    {
+        return new Object[]{ message.getSequence(), message.getWhenMillis(), message.getSender(), message.getMessage() };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ChatMessageDto> javaRoundTrip(final ChatMessageList list) throws IOException, ClassNotFoundException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(list);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+        {
+            return (List<ChatMessageDto>) in.readObject();
+        }
+    }
+}
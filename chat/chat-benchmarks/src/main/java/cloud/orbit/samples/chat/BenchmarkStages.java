@@ -0,0 +1,69 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.extensions.json.InMemoryJSONStorageExtension;
+
+import java.util.UUID;
+
+/**
+ * Starts the local Orbit stages the benchmarks run against.
+ */
+final class BenchmarkStages
+{
+    private BenchmarkStages()
+    {
+    }
+
+    /**
+     * Starts a host stage with the in memory extensions used by the chat backend
+     * and binds it to the calling thread.
+     */
+    static Stage startHost()
+    {
+        final Stage stage = new Stage.Builder()
+                .clusterName("chat-benchmarks-" + UUID.randomUUID())
+                .extensions(new InMemoryJSONStorageExtension(), new InMemoryChatJournalExtension(), new InMemoryChatArchiveExtension())
+                .build();
+        stage.start().join();
+        stage.bind();
+        return stage;
+    }
+
+    static ChatMessageDto message(final int i)
+    {
+        final ChatMessageDto message = new ChatMessageDto();
+        message.setSender("user" + (i % 8));
+        message.setMessage("benchmark message number " + i);
+        message.setWhenMillis(1476700000000L + i * 250L);
+        message.setSequence(i + 1);
+        return message;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.concurrent.Task;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link ChatActor} on a local stage: {@code say} until every observer got the messages,
+ * with the history trimmed once it is full, and {@code getHistory} at several history sizes.
+ * {@code shardSize} 0 has the room notify every observer itself, otherwise they are spread over relay shards.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatActorBenchmark
+{
+    private static final int BATCH = 100;
+    // a delivery lost or stuck fails the iteration instead of hanging it
+    private static final long DELIVERY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @State(Scope.Benchmark)
+    public static class SayState
+    {
+        @Param({ "1", "10", "100", "1000" })
+        private int observers;
+
+        @Param({ "0", "64" })
+        private int shardSize;
+
+        private Stage stage;
+        private Chat chat;
+        private final AtomicLong received = new AtomicLong();
+        private long expected;
+        private int counter;
+
+        @Setup
+        public void setup()
+        {
+            System.setProperty("orbit.samples.chat.shardSize", String.valueOf(shardSize));
+            stage = BenchmarkStages.startHost();
+            chat = Actor.getReference(Chat.class, "benchmark-" + UUID.randomUUID());
+            for (int i = 0; i < observers; i++)
+            {
+                chat.join(new ChatObserver()
+                {
+                    @Override
+                    public Task<Void> receiveMessage(final ChatMessageDto message)
+                    {
+                        received.incrementAndGet();
+                        return Task.done();
+                    }
+
+                    @Override
+                    public Task<Void> receiveMessages(final List<ChatMessageDto> messages)
+                    {
+                        received.addAndGet(messages.size());
+                        return Task.done();
+                    }
+
+                    @Override
+                    public Task<Void> receivePresence(final List<String> joined, final List<String> left)
+                    {
+                        return Task.done();
+                    }
+                }).join();
+            }
+            // full from the start, every message said trims the oldest
+            say(ChatHistory.DEFAULT_CAPACITY);
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            stage.stop().join();
+        }
+
+        void say(final int count)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                chat.say(BenchmarkStages.message(counter++));
+            }
+            expected += (long) count * observers;
+            awaitDelivery();
+        }
+
+        private void awaitDelivery()
+        {
+            final long deadline = System.nanoTime() + DELIVERY_TIMEOUT_NANOS;
+            while (received.get() < expected)
+            {
+                if (System.nanoTime() - deadline > 0)
+                {
+                    throw new IllegalStateException("Only " + received.get() + " of " + expected + " messages delivered");
+                }
+                LockSupport.parkNanos(1_000);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class HistoryState
+    {
+        // 2000 is past the history capacity, the oldest messages were trimmed to the archive
+        @Param({ "100", "1000", "2000" })
+        private int historySize;
+
+        // 1000 reaches past the hot tail into the archive
+        @Param({ "10", "100", "1000" })
+        private int messageCount;
+
+        private Stage stage;
+        private Chat chat;
+
+        @Setup
+        public void setup()
+        {
+            stage = BenchmarkStages.startHost();
+            chat = Actor.getReference(Chat.class, "benchmark-" + UUID.randomUUID());
+            final List<Task<Void>> said = new ArrayList<>(historySize);
+            for (int i = 0; i < historySize; i++)
+            {
+                said.add(chat.say(BenchmarkStages.message(i)));
+            }
+            Task.allOf(said).join();
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            stage.stop().join();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void say(final SayState state)
+    {
+        state.say(BATCH);
+    }
+
+    @Benchmark
+    public List<ChatMessageDto> getHistory(final HistoryState state)
+    {
+        return state.chat.getHistory(state.messageCount).join();
+    }
+}
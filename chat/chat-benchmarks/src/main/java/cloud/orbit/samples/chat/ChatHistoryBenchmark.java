@@ -0,0 +1,112 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link ChatHistory} ring buffer against the LinkedList the actor used to keep,
+ * for appending to a full history and for copying its newest messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatHistoryBenchmark
+{
+    @Param({ "100", "1000", "10000" })
+    private int historySize;
+
+    @Param({ "10", "100" })
+    private int messageCount;
+
+    private ChatHistory ringBuffer;
+    private LinkedList<ChatMessageDto> linkedList;
+    private ChatMessageDto message;
+
+    @Setup
+    public void setup()
+    {
+        ringBuffer = new ChatHistory(historySize);
+        linkedList = new LinkedList<>();
+        for (int i = 0; i < historySize; i++)
+        {
+            ringBuffer.add(BenchmarkStages.message(i));
+            linkedList.add(BenchmarkStages.message(i));
+        }
+        message = BenchmarkStages.message(historySize);
+    }
+
+    @Benchmark
+    public List<ChatMessageDto> latestRingBuffer()
+    {
+        return ringBuffer.latest(messageCount);
+    }
+
+    @Benchmark
+    public List<ChatMessageDto> latestLinkedList()
+    {
+        return new ArrayList<>(linkedList.subList(Math.max(0, linkedList.size() - messageCount), linkedList.size()));
+    }
+
+    @Benchmark
+    public int appendRingBuffer()
+    {
+        ringBuffer.add(message);
+        return ringBuffer.size();
+    }
+
+    @Benchmark
+    public int appendLinkedList()
+    {
+        linkedList.add(message);
+        while (linkedList.size() > historySize)
+        {
+            linkedList.remove(0);
+        }
+        return linkedList.size();
+    }
+}
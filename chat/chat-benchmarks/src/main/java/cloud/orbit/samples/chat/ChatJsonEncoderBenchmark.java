@@ -0,0 +1,128 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Web socket frames built with javax.json for every session, the way {@link ChatWebSocket} used to,
+ * against {@link ChatJsonEncoder} encoding once per fan-out.
+ * <p>
+ * Run with {@code -prof gc}: gc.alloc.rate.norm divided by {@code sessions}
+ * is the allocation per delivered message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatJsonEncoderBenchmark
+{
+    @Param({ "1", "100" })
+    private int sessions;
+
+    private ChatMessageDto message;
+    private List<ChatMessageDto> history;
+
+    @Setup
+    public void setup()
+    {
+        message = BenchmarkStages.message(1);
+        history = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            history.add(BenchmarkStages.message(i));
+        }
+    }
+
+    @Benchmark
+    public void messageJavaxJsonPerSession(final Blackhole blackhole)
+    {
+        for (int i = 0; i < sessions; i++)
+        {
+            blackhole.consume(Json.createObjectBuilder()
+                    .add("message", message.getMessage())
+                    .add("sender", message.getSender())
+                    .add("received", ZonedDateTime.ofInstant(message.getWhen().toInstant(), ZoneId.systemDefault()).format(DateTimeFormatter.ISO_INSTANT))
+                    .add("sequence", message.getSequence())
+                    .build().toString());
+        }
+    }
+
+    @Benchmark
+    public void messageEncodedOnce(final Blackhole blackhole)
+    {
+        final String frame = ChatJsonEncoder.encodeMessage(message);
+        for (int i = 0; i < sessions; i++)
+        {
+            blackhole.consume(frame);
+        }
+    }
+
+    @Benchmark
+    public String historyJavaxJson()
+    {
+        final JsonArrayBuilder array = Json.createArrayBuilder();
+        history.forEach(m -> array.add(Json.createObjectBuilder()
+                .add("message", m.getMessage())
+                .add("sender", m.getSender())
+                .add("received", m.getWhen().toInstant().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_INSTANT))
+                .add("sequence", m.getSequence())
+                .build()));
+        return Json.createObjectBuilder().add("history", array).build().toString();
+    }
+
+    @Benchmark
+    public String historyEncoder()
+    {
+        return ChatJsonEncoder.encodeHistory(history);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a message and of a 100 message history: Java serialization of the
+ * original Date based DTO against the {@link ChatMessageCodec} based one, and the codec's
+ * batches stored by rows against the deflated columns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageCodecBenchmark
+{
+    /**
+     * The message as it was before the codec.
+     */
+    public static class LegacyChatMessageDto implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private Date when;
+        private String sender;
+        private String message;
+    }
+
+    private ChatMessageDto message;
+    private ChatMessageList history;
+    private LegacyChatMessageDto legacyMessage;
+    private ArrayList<LegacyChatMessageDto> legacyHistory;
+    private byte[] serializedHistory;
+    private byte[] serializedLegacyHistory;
+    private byte[] encodedHistory;
+    private byte[] encodedColumns;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        message = BenchmarkStages.message(1);
+        legacyMessage = legacy(message);
+        history = new ChatMessageList();
+        legacyHistory = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            history.add(BenchmarkStages.message(i));
+            legacyHistory.add(legacy(history.get(i)));
+        }
+        serializedHistory = javaSerialize(history);
+        serializedLegacyHistory = javaSerialize(legacyHistory);
+        encodedHistory = ChatMessageCodec.encodeBatch(history, true);
+        encodedColumns = ChatMessageCodec.encodeColumns(history);
+    }
+
+    @Benchmark
+    public byte[] messageLegacy() throws IOException
+    {
+        return javaSerialize(legacyMessage);
+    }
+
+    @Benchmark
+    public byte[] messageCodec() throws IOException
+    {
+        return javaSerialize(message);
+    }
+
+    @Benchmark
+    public byte[] historyLegacy() throws IOException
+    {
+        return javaSerialize(legacyHistory);
+    }
+
+    @Benchmark
+    public byte[] historyCodec() throws IOException
+    {
+        return javaSerialize(history);
+    }
+
+    @Benchmark
+    public Object historyLegacyRead() throws IOException, ClassNotFoundException
+    {
+        return javaDeserialize(serializedLegacyHistory);
+    }
+
+    @Benchmark
+    public Object historyCodecRead() throws IOException, ClassNotFoundException
+    {
+        return javaDeserialize(serializedHistory);
+    }
+
+    @Benchmark
+    public byte[] historyBatch()
+    {
+        return ChatMessageCodec.encodeBatch(history, true);
+    }
+
+    @Benchmark
+    public List<ChatMessageDto> historyBatchRead()
+    {
+        return ChatMessageCodec.decodeBatch(encodedHistory);
+    }
+
+    @Benchmark
+    public byte[] historyColumns()
+    {
+        return ChatMessageCodec.encodeColumns(history);
+    }
+
+    @Benchmark
+    public List<ChatMessageDto> historyColumnsRead()
+    {
+        return ChatMessageCodec.decodeBatch(encodedColumns);
+    }
+
+    private static LegacyChatMessageDto legacy(final ChatMessageDto message)
+    {
+        final LegacyChatMessageDto legacy = new LegacyChatMessageDto();
+        legacy.when = message.getWhen();
+        legacy.sender = message.getSender();
+        legacy.message = message.getMessage();
+        return legacy;
+    }
+
+    private static byte[] javaSerialize(final Object value) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object javaDeserialize(final byte[] data) throws IOException, ClassNotFoundException
+    {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)))
+        {
+            return in.readObject();
+        }
+    }
+}
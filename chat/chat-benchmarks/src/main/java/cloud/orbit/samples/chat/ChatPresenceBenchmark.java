@@ -0,0 +1,145 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.concurrent.Task;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconnect storm on a {@link ChatActor}: every member of the room leaves and comes back through its frontend.
+ * <p>
+ * With {@code presenceWindowMillis} 0 each change reaches every observer, with a window they only get
+ * the changes left once the storm is over, a member that left and came back within the window not being one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatPresenceBenchmark
+{
+    private static final int MEMBERS = 1000;
+
+    @Param({ "1", "10", "100" })
+    private int observers;
+
+    @Param({ "0", "100" })
+    private long presenceWindowMillis;
+
+    private Stage stage;
+    private Chat chat;
+    private ChatObserver frontend;
+    private final List<List<String>> members = new ArrayList<>();
+
+    @Setup
+    public void setup()
+    {
+        System.setProperty("orbit.samples.chat.presenceWindowMillis", String.valueOf(presenceWindowMillis));
+        stage = BenchmarkStages.startHost();
+        chat = Actor.getReference(Chat.class, "benchmark-" + UUID.randomUUID());
+        for (int i = 0; i < observers; i++)
+        {
+            final ChatObserver observer = new ChatObserver()
+            {
+                @Override
+                public Task<Void> receiveMessage(final ChatMessageDto message)
+                {
+                    return Task.done();
+                }
+
+                @Override
+                public Task<Void> receiveMessages(final List<ChatMessageDto> messages)
+                {
+                    return Task.done();
+                }
+
+                @Override
+                public Task<Void> receivePresence(final List<String> joined, final List<String> left)
+                {
+                    return Task.done();
+                }
+            };
+            chat.join(observer).join();
+            if (frontend == null)
+            {
+                frontend = observer;
+            }
+        }
+        for (int i = 0; i < MEMBERS; i++)
+        {
+            members.add(Collections.singletonList("user" + i));
+        }
+        final List<String> all = new ArrayList<>();
+        members.forEach(all::addAll);
+        chat.updatePresence(frontend, all, Collections.emptyList());
+        chat.getPresence().join();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        stage.stop().join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MEMBERS)
+    public List<String> reconnectStorm()
+    {
+        final List<String> none = Collections.emptyList();
+        for (List<String> member : members)
+        {
+            chat.updatePresence(frontend, none, member);
+            chat.updatePresence(frontend, member, none);
+        }
+        // queued behind the updates
+        return chat.getPresence().join();
+    }
+}
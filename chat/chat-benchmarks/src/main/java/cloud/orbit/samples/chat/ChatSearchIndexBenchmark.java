@@ -0,0 +1,139 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of indexing a message and of queries against a {@link ChatSearchIndex} of {@code historySize} messages.
+ * <p>
+ * Messages are made of words picked with a skew towards the first ones of the vocabulary,
+ * the common term is in about one in six and the rare one in a few per thousand.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatSearchIndexBenchmark
+{
+    private static final int VOCABULARY = 2000;
+    private static final int WORDS = 8;
+    private static final int PAGE = 20;
+
+    @Param({ "1000", "10000", "100000" })
+    private int historySize;
+
+    private ChatSearchIndex index;
+    private ChatMessageDto[] messages;
+    private long sequence;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        final Random random = new Random(42);
+        messages = new ChatMessageDto[historySize];
+        for (int i = 0; i < historySize; i++)
+        {
+            final StringBuilder text = new StringBuilder();
+            for (int w = 0; w < WORDS; w++)
+            {
+                // squaring the uniform draw skews it towards the common words
+                final double r = random.nextDouble();
+                text.append(w == 0 ? "" : " ").append("word").append((int) (r * r * VOCABULARY));
+            }
+            final ChatMessageDto message = BenchmarkStages.message(i);
+            message.setMessage(text.toString());
+            messages[i] = message;
+        }
+        index = new ChatSearchIndex();
+        for (ChatMessageDto message : messages)
+        {
+            index.add(message);
+        }
+        sequence = historySize;
+    }
+
+    @Benchmark
+    public long indexMessage()
+    {
+        // reuses the texts with new sequence numbers, the index keeps historySize messages
+        final ChatMessageDto message = messages[next];
+        next = (next + 1) % historySize;
+        message.setSequence(++sequence);
+        index.add(message);
+        index.removeBefore(sequence - historySize + 1);
+        return index.getNewest();
+    }
+
+    @Benchmark
+    public long[] commonTerm()
+    {
+        return index.search("word0", null, 0, PAGE);
+    }
+
+    @Benchmark
+    public long[] rareTerm()
+    {
+        return index.search("word1500", null, 0, PAGE);
+    }
+
+    @Benchmark
+    public long[] twoTerms()
+    {
+        return index.search("word0 word1", null, 0, PAGE);
+    }
+
+    @Benchmark
+    public long[] termAndSender()
+    {
+        return index.search("word1", "user3", 0, PAGE);
+    }
+
+    @Benchmark
+    public long[] oldestPage()
+    {
+        return index.search("word0", null, historySize / 10, PAGE);
+    }
+}
@@ -0,0 +1,339 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.cluster.JGroupsClusterPeer;
+import cloud.orbit.actors.extensions.json.InMemoryJSONStorageExtension;
+import cloud.orbit.concurrent.Task;
+import cloud.orbit.samples.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a chat cluster in a single JVM, servers joining and leaving it while clients talk, to see how it copes.
+ * <p>
+ * Starts {@code servers} host stages, sharing the same in-memory storage, journal and archive so
+ * a room reactivated on another server finds its state, and {@code clients} client stages, each following
+ * every one of the {@code rooms} rooms. The stages talk over the JGroups shared loopback transport, no network
+ * or outside service is involved. The clients say {@code messagesPerSecond} messages spread over the rooms while,
+ * every {@code churnSeconds}, a server stops: down to {@code minServers}, then new servers join back up to
+ * {@code servers}, and so on. Servers leave gracefully, writing the state of their rooms.
+ * <p>
+ * After each change it reports the throughput since the previous one and how long the rooms took to answer a
+ * {@code getHistory} call, reactivating the rooms of a server that left. At the end it reports the messages
+ * that never reached an observer and those delivered later than {@code delayedMillis}.
+ * The properties are read from {@code orbit.samples.chat.harness.*}, see the fields below.
+ * <p>
+ * {@code java -cp chat-benchmarks/target/benchmarks.jar cloud.orbit.samples.chat.ClusterHarness}
+ */
+public class ClusterHarness
+{
+    private static final String PREFIX = "orbit.samples.chat.harness.";
+    private static final String TEXT = "harness ";
+
+    private final int initialServers = Integer.getInteger(PREFIX + "servers", 3);
+    private final int minServers = Integer.getInteger(PREFIX + "minServers", 1);
+    private final int clientCount = Integer.getInteger(PREFIX + "clients", 2);
+    private final int rooms = Integer.getInteger(PREFIX + "rooms", 100);
+    private final int messagesPerSecond = Integer.getInteger(PREFIX + "messagesPerSecond", 2000);
+    private final int durationSeconds = Integer.getInteger(PREFIX + "durationSeconds", 60);
+    private final int churnSeconds = Integer.getInteger(PREFIX + "churnSeconds", 10);
+    private final int drainSeconds = Integer.getInteger(PREFIX + "drainSeconds", 5);
+    private final long delayedMillis = Long.getLong(PREFIX + "delayedMillis", 1000);
+
+    private final String clusterName = "chat-harness-" + UUID.randomUUID();
+    // shared by the servers, like a database would be
+    private final InMemoryJSONStorageExtension storage = new InMemoryJSONStorageExtension();
+    private final InMemoryChatJournalExtension journal = new InMemoryChatJournalExtension();
+    private final InMemoryChatArchiveExtension archive = new InMemoryChatArchiveExtension();
+
+    private final List<Stage> servers = new ArrayList<>();
+    private final List<Client> clients = new ArrayList<>();
+    private int serversStarted;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder probeFailures = new LongAdder();
+    private final Histogram deliveryMicros = new Histogram();
+    private final Histogram reactivationMicros = new Histogram();
+
+    public static void main(String[] args) throws Exception
+    {
+        new ClusterHarness().run();
+        // the stages of the servers that left can leave threads behind
+        System.exit(0);
+    }
+
+    private void run() throws Exception
+    {
+        for (int i = 0; i < initialServers; i++)
+        {
+            startServer();
+        }
+        for (int i = 0; i < clientCount; i++)
+        {
+            clients.add(new Client(i));
+        }
+        for (Client client : clients)
+        {
+            client.follow().join();
+        }
+        System.out.println("servers=" + servers.size() + " clients=" + clientCount + " rooms=" + rooms
+                + " messagesPerSecond=" + messagesPerSecond);
+
+        final ScheduledExecutorService load = Executors.newSingleThreadScheduledExecutor();
+        final int ticksPerSecond = 100;
+        final long[] tick = { 0 };
+        load.scheduleAtFixedRate(() -> {
+            // spreads the rate over the ticks, the remainder included
+            final long t = tick[0]++;
+            final long count = (t + 1) * messagesPerSecond / ticksPerSecond - t * messagesPerSecond / ticksPerSecond;
+            for (long i = 0; i < count; i++)
+            {
+                final long n = sent.sum();
+                clients.get((int) (n % clientCount)).say(room((int) (n % rooms)));
+                sent.increment();
+            }
+        }, 0, 1000 / ticksPerSecond, TimeUnit.MILLISECONDS);
+
+        final long start = System.nanoTime();
+        long windowStart = start;
+        long windowReceived = 0;
+        boolean leaving = true;
+        while (TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + churnSeconds <= durationSeconds)
+        {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(churnSeconds));
+            if (servers.size() <= minServers)
+            {
+                leaving = false;
+            }
+            else if (servers.size() >= initialServers)
+            {
+                leaving = true;
+            }
+            final String event = leaving ? "server left" : "server joined";
+            if (leaving)
+            {
+                servers.remove(0).stop().join();
+            }
+            else
+            {
+                startServer();
+            }
+            final Histogram probe = probeRooms();
+            final long now = System.nanoTime();
+            final long receivedNow = received.sum();
+            System.out.println(String.format("%4ds %-13s servers=%d received/s=%.0f getHistory p50=%dus p99=%dus max=%dus",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start), event, servers.size(),
+                    (receivedNow - windowReceived) / ((now - windowStart) / 1e9),
+                    probe.percentile(0.5), probe.percentile(0.99), probe.getMax()));
+            windowStart = now;
+            windowReceived = receivedNow;
+        }
+        load.shutdown();
+        load.awaitTermination(10, TimeUnit.SECONDS);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(drainSeconds));
+
+        final double seconds = (System.nanoTime() - start) / 1e9 - drainSeconds;
+        final long expected = sent.sum() * clientCount;
+        System.out.println(String.format("sent=%d delivered=%d of %d, %.0f/s, lost=%d delayed=%d (over %dms)",
+                sent.sum(), received.sum(), expected, received.sum() / seconds,
+                Math.max(0, expected - received.sum()), delayed.sum(), delayedMillis));
+        System.out.println(String.format("delivery p50=%dus p99=%dus p999=%dus max=%dus",
+                deliveryMicros.percentile(0.5), deliveryMicros.percentile(0.99), deliveryMicros.percentile(0.999), deliveryMicros.getMax()));
+        System.out.println(String.format("reactivation (getHistory after each change) p50=%dus p99=%dus max=%dus, failures=%d",
+                reactivationMicros.percentile(0.5), reactivationMicros.percentile(0.99), reactivationMicros.getMax(), probeFailures.sum()));
+
+        for (Client client : clients)
+        {
+            client.stop();
+        }
+        for (Stage server : servers)
+        {
+            server.stop().join();
+        }
+    }
+
+    private void startServer()
+    {
+        final Stage stage = new Stage.Builder()
+                .clusterName(clusterName)
+                .nodeName("server-" + serversStarted++)
+                .clusterPeer(new JGroupsClusterPeer("classpath:/conf/jgroups-loopback.xml"))
+                .extensions(storage, journal, archive)
+                .build();
+        stage.start().join();
+        servers.add(stage);
+    }
+
+    private String room(final int index)
+    {
+        return "harness-room-" + index;
+    }
+
+    /**
+     * Times a {@code getHistory} call to every room, the rooms of a server that left are activated again.
+     */
+    private Histogram probeRooms()
+    {
+        final Histogram probe = new Histogram();
+        final List<Task<?>> calls = new ArrayList<>(rooms);
+        clients.get(0).run(() -> {
+            for (int i = 0; i < rooms; i++)
+            {
+                final long start = System.nanoTime();
+                calls.add(Actor.getReference(Chat.class, room(i)).getHistory(1).whenComplete((history, ex) -> {
+                    if (ex != null)
+                    {
+                        probeFailures.increment();
+                        return;
+                    }
+                    final long micros = (System.nanoTime() - start) / 1000;
+                    probe.record(micros);
+                    reactivationMicros.record(micros);
+                }));
+            }
+        }).join();
+        Task.allOf(calls).handle((x, ex) -> null).join();
+        return probe;
+    }
+
+    private void delivered(final ChatMessageDto message)
+    {
+        final String text = message.getMessage();
+        if (text == null || !text.startsWith(TEXT))
+        {
+            return;
+        }
+        final long micros = (System.nanoTime() - Long.parseLong(text.substring(TEXT.length()))) / 1000;
+        deliveryMicros.record(micros);
+        received.increment();
+        if (micros > TimeUnit.MILLISECONDS.toMicros(delayedMillis))
+        {
+            delayed.increment();
+        }
+    }
+
+    /**
+     * A client stage with the thread bound to it, following every room.
+     */
+    private class Client implements ChatObserver
+    {
+        private final String name;
+        private final Stage stage;
+        private final ExecutorService thread = Executors.newSingleThreadExecutor();
+
+        Client(final int index)
+        {
+            name = "client-" + index;
+            stage = new Stage.Builder()
+                    .clusterName(clusterName)
+                    .nodeName(name)
+                    .mode(Stage.StageMode.CLIENT)
+                    .clusterPeer(new JGroupsClusterPeer("classpath:/conf/jgroups-loopback.xml"))
+                    .build();
+            stage.start().join();
+            run(stage::bind).join();
+        }
+
+        Task<Void> run(final Runnable action)
+        {
+            final Task<Void> done = new Task<>();
+            thread.execute(() -> {
+                try
+                {
+                    action.run();
+                    done.complete(null);
+                }
+                catch (RuntimeException e)
+                {
+                    done.completeExceptionally(e);
+                }
+            });
+            return done;
+        }
+
+        Task<?> follow()
+        {
+            final List<Task<?>> joins = new ArrayList<>(rooms);
+            return run(() -> {
+                for (int i = 0; i < rooms; i++)
+                {
+                    joins.add(Actor.getReference(Chat.class, room(i)).join(this));
+                }
+            }).thenCompose(() -> Task.allOf(joins));
+        }
+
+        void say(final String room)
+        {
+            run(() -> {
+                final ChatMessageDto message = new ChatMessageDto();
+                message.setSender(name);
+                message.setMessage(TEXT + System.nanoTime());
+                Actor.getReference(Chat.class, room).say(message);
+            });
+        }
+
+        @Override
+        public Task<Void> receiveMessage(final ChatMessageDto message)
+        {
+            delivered(message);
+            return Task.done();
+        }
+
+        @Override
+        public Task<Void> receiveMessages(final List<ChatMessageDto> messages)
+        {
+            messages.forEach(ClusterHarness.this::delivered);
+            return Task.done();
+        }
+
+        @Override
+        public Task<Void> receivePresence(final List<String> joined, final List<String> left)
+        {
+            return Task.done();
+        }
+
+        void stop()
+        {
+            thread.shutdown();
+            stage.stop().join();
+        }
+    }
+}
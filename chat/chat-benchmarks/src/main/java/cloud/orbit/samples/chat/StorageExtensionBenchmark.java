@@ -0,0 +1,142 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.extensions.json.InMemoryJSONStorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The in memory JSON storage against the segment log storage:
+ * full {@link ChatActor} state snapshots and single message journal appends.
+ * {@code segmentLogFsync} waits for the batched fsync of every write, {@code segmentLog} doesn't.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageExtensionBenchmark
+{
+    @Param({ "inMemoryJson", "segmentLog", "segmentLogFsync" })
+    private String storage;
+
+    @Param({ "100", "1000" })
+    private int historySize;
+
+    private StorageExtension storageExtension;
+    private ChatJournalExtension journal;
+    private Path directory;
+    private RemoteReference<?> reference;
+    private ChatActor.State state;
+    private ChatMessageDto message;
+    private long sequence;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        if ("inMemoryJson".equals(storage))
+        {
+            storageExtension = new InMemoryJSONStorageExtension();
+            journal = new InMemoryChatJournalExtension();
+        }
+        else
+        {
+            directory = Files.createTempDirectory("chat-benchmark");
+            final SegmentLogStorageExtension segmentLog = new SegmentLogStorageExtension();
+            segmentLog.setDirectory(directory.toString());
+            segmentLog.setAwaitFsync("segmentLogFsync".equals(storage));
+            storageExtension = segmentLog;
+            journal = segmentLog;
+        }
+        storageExtension.start().join();
+        reference = (RemoteReference<?>) Actor.getReference(Chat.class, "benchmark");
+        state = new ChatActor.State();
+        for (int i = 0; i < historySize; i++)
+        {
+            state.history.add(BenchmarkStages.message(i));
+        }
+        state.sequence = historySize;
+        sequence = historySize;
+        message = BenchmarkStages.message(historySize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        storageExtension.stop().join();
+        if (directory != null)
+        {
+            try (Stream<Path> files = Files.walk(directory))
+            {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public void writeState()
+    {
+        storageExtension.writeState(reference, state).join();
+    }
+
+    @Benchmark
+    public void appendMessage()
+    {
+        journal.append("benchmark", ++sequence, message).join();
+    }
+
+    @Benchmark
+    public Boolean readState()
+    {
+        return storageExtension.readState(reference, new ChatActor.State()).join();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control of the frames the clients send.
+ * <p>
+ * Frames longer than {@code orbit.samples.chat.maxFrameChars} are rejected before they are parsed.
+ * Only the well formed messages said count against the rates, of their connection,
+ * {@code orbit.samples.chat.connectionRate} per second with bursts of {@code orbit.samples.chat.connectionBurst},
+ * and of their room on this frontend, {@code orbit.samples.chat.roomRate} and {@code orbit.samples.chat.roomBurst};
+ * a rate of 0 doesn't limit. The sender named in a message is chosen by the client, so the rate is per connection.
+ * <p>
+ * The frontend sheds the messages said and the subscriptions while it is overloaded: when the process uses more than
+ * {@code orbit.samples.chat.shedCpuLoad} of the CPUs, or more than {@code orbit.samples.chat.shedQueuedFrames}
+ * frames wait in the outboxes of the sockets. It recovers below 90% of both. Unsubscribing is never shed,
+ * it is how clients take load off the frontend.
+ * <p>
+ * The client is told with a {@code {"rejected":"<reason>"}} frame, every reason has its
+ * {@code chat.ingress.rejected.<reason>} counter.
+ */
+final class ChatAdmission
+{
+    enum Rejection
+    {
+        OVERSIZE("oversize"),
+        CONNECTION_RATE("connectionRate"),
+        ROOM_RATE("roomRate"),
+        OVERLOAD("overload"),
+        MALFORMED("malformed");
+
+        private final LongAdder counter;
+        private final String frame;
+
+        Rejection(final String reason)
+        {
+            counter = ChatMetrics.counter("chat.ingress.rejected." + reason);
+            frame = "{\"rejected\":\"" + reason + "\"}";
+        }
+
+        /**
+         * Counts the rejection and returns the frame telling the client.
+         */
+        String reject()
+        {
+            counter.increment();
+            return frame;
+        }
+    }
+
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChatAdmission.class);
+    private static final LongAdder accepted = ChatMetrics.counter("chat.ingress.accepted");
+
+    private static final int maxFrameChars = Integer.getInteger("orbit.samples.chat.maxFrameChars", 4096);
+    private static final double connectionRate = Double.parseDouble(System.getProperty("orbit.samples.chat.connectionRate", "10"));
+    private static final double connectionBurst = Double.parseDouble(System.getProperty("orbit.samples.chat.connectionBurst", "20"));
+    private static final double roomRate = Double.parseDouble(System.getProperty("orbit.samples.chat.roomRate", "1000"));
+    private static final double roomBurst = Double.parseDouble(System.getProperty("orbit.samples.chat.roomBurst", "2000"));
+    private static final double shedCpuLoad = Double.parseDouble(System.getProperty("orbit.samples.chat.shedCpuLoad", "0.95"));
+    private static final long shedQueuedFrames = Long.getLong("orbit.samples.chat.shedQueuedFrames", 100_000);
+    private static final long overloadCheckMillis = Long.getLong("orbit.samples.chat.overloadCheckMillis", 250);
+
+    private static volatile boolean overloaded;
+    private static ScheduledExecutorService scheduler;
+
+    static
+    {
+        ChatMetrics.register("chat.ingress.overloaded", () -> overloaded ? 1 : 0);
+    }
+
+    private ChatAdmission()
+    {
+    }
+
+    /**
+     * Starts checking whether the frontend is overloaded, every {@code orbit.samples.chat.overloadCheckMillis}.
+     */
+    static synchronized void start()
+    {
+        if (scheduler != null)
+        {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "chat-admission");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(ChatAdmission::checkOverload, overloadCheckMillis, overloadCheckMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void stop()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+            overloaded = false;
+        }
+    }
+
+    /**
+     * Bucket of a connection, null when the connections aren't limited.
+     */
+    static TokenBucket connectionBucket()
+    {
+        return connectionRate > 0 ? new TokenBucket(connectionRate, connectionBurst) : null;
+    }
+
+    /**
+     * Bucket of a room, null when the rooms aren't limited.
+     */
+    static TokenBucket roomBucket()
+    {
+        return roomRate > 0 ? new TokenBucket(roomRate, roomBurst) : null;
+    }
+
+    /**
+     * Checks the size of a frame before parsing it, returns the frame rejecting it or null to accept it.
+     */
+    static String check(final String frame)
+    {
+        if (frame.length() > maxFrameChars)
+        {
+            return Rejection.OVERSIZE.reject();
+        }
+        return null;
+    }
+
+    /**
+     * Checks a parsed message said in the room over a connection limited by {@code connection},
+     * returns the frame rejecting it or null to accept it.
+     */
+    static String checkSay(final TokenBucket connection, final ChatRoom room)
+    {
+        if (overloaded)
+        {
+            return Rejection.OVERLOAD.reject();
+        }
+        if (connection != null && !connection.tryAcquire())
+        {
+            return Rejection.CONNECTION_RATE.reject();
+        }
+        if (!room.admit())
+        {
+            return Rejection.ROOM_RATE.reject();
+        }
+        accepted.increment();
+        return null;
+    }
+
+    /**
+     * Checks a subscription to a room, returns the frame rejecting it or null to accept it.
+     */
+    static String checkSubscribe()
+    {
+        return overloaded ? Rejection.OVERLOAD.reject() : null;
+    }
+
+    private static void checkOverload()
+    {
+        try
+        {
+            final double cpu = processCpuLoad();
+            final long queued = SessionOutbox.queuedFrames();
+            final boolean wasOverloaded = overloaded;
+            if (!wasOverloaded && (cpu > shedCpuLoad || queued > shedQueuedFrames))
+            {
+                overloaded = true;
+                logger.warn("Frontend overloaded, shedding incoming frames (cpu " + cpu + ", queued frames " + queued + ")");
+            }
+            else if (wasOverloaded && cpu < shedCpuLoad * 0.9 && queued < shedQueuedFrames * 0.9)
+            {
+                overloaded = false;
+                logger.info("Frontend no longer overloaded, accepting incoming frames");
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // keeps the check scheduled
+            logger.error("Error checking the frontend load", e);
+        }
+    }
+
+    /**
+     * Share of the CPUs used by this process, between 0 and 1, negative when unknown.
+     */
+    private static double processCpuLoad()
+    {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+        {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Streaming JSON encoder for the frames sent to the chat web sockets.
+ * <p>
+ * Produces the same text as building the frames with {@code javax.json},
+ * but writes straight into a per thread buffer and caches the formatted
+ * timestamp of the current second, so a frame costs little more than its resulting string.
+ */
+public final class ChatJsonEncoder
+{
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<ChatJsonEncoder> encoders = ThreadLocal.withInitial(ChatJsonEncoder::new);
+
+    private final StringBuilder buffer = new StringBuilder(256);
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedSecondPrefix;
+
+    private ChatJsonEncoder()
+    {
+    }
+
+    public static String encodeMessage(final ChatMessageDto message)
+    {
+        final ChatJsonEncoder encoder = encoders.get();
+        final StringBuilder out = encoder.begin();
+        encoder.writeMessage(message);
+        return encoder.finish(out);
+    }
+
+    public static String encodeHistory(final List<ChatMessageDto> messages)
+    {
+        return encodeMessages("history", messages);
+    }
+
+    /**
+     * Messages following the ones the client already has.
+     */
+    public static String encodeDelta(final List<ChatMessageDto> messages)
+    {
+        return encodeMessages("delta", messages);
+    }
+
+    private static String encodeMessages(final String name, final List<ChatMessageDto> messages)
+    {
+        final ChatJsonEncoder encoder = encoders.get();
+        final StringBuilder out = encoder.begin();
+        out.append("{\"").append(name).append("\":[");
+        for (int i = 0, size = messages.size(); i < size; i++)
+        {
+            if (i > 0)
+            {
+                out.append(',');
+            }
+            encoder.writeMessage(messages.get(i));
+        }
+        out.append("]}");
+        return encoder.finish(out);
+    }
+
+    /**
+     * Adds the name of the room to a frame, for the sockets multiplexing several rooms.
+     */
+    public static String encodeTagged(final String room, final String frame)
+    {
+        final ChatJsonEncoder encoder = encoders.get();
+        final StringBuilder out = encoder.begin();
+        out.append("{\"room\":");
+        encoder.writeString(room);
+        out.append(',').append(frame, 1, frame.length());
+        return encoder.finish(out);
+    }
+
+    /**
+     * Tells a multiplexed socket it no longer gets the frames of the room.
+     */
+    public static String encodeUnsubscribed(final String room)
+    {
+        final ChatJsonEncoder encoder = encoders.get();
+        final StringBuilder out = encoder.begin();
+        out.append("{\"unsubscribed\":");
+        encoder.writeString(room);
+        out.append('}');
+        return encoder.finish(out);
+    }
+
+    /**
+     * Members present in the room, for a member that just joined.
+     */
+    public static String encodeRoster(final Collection<String> members)
+    {
+        final ChatJsonEncoder encoder = encoders.get();
+        final StringBuilder out = encoder.begin();
+        out.append("{\"roster\":");
+        encoder.writeStrings(members);
+        out.append('}');
+        return encoder.finish(out);
+    }
+
+    /**
+     * Changes to the roster since the previous presence frame.
+     */
+    public static String encodePresence(final Collection<String> joined, final Collection<String> left)
+    {
+        final ChatJsonEncoder encoder = encoders.get();
+        final StringBuilder out = encoder.begin();
+        out.append("{\"presence\":{\"joined\":");
+        encoder.writeStrings(joined);
+        out.append(",\"left\":");
+        encoder.writeStrings(left);
+        out.append("}}");
+        return encoder.finish(out);
+    }
+
+    /**
+     * Stands for the messages a slow session had to skip.
+     */
+    public static String encodeMissed(final long count)
+    {
+        return "{\"missed\":" + count + "}";
+    }
+
+    private StringBuilder begin()
+    {
+        buffer.setLength(0);
+        return buffer;
+    }
+
+    private String finish(final StringBuilder out)
+    {
+        final String frame = out.toString();
+        if (out.capacity() > MAX_RETAINED_BUFFER)
+        {
+            // don't pin the buffer of an unusually large history frame to this thread
+            out.setLength(0);
+            out.trimToSize();
+        }
+        return frame;
+    }
+
+    private void writeMessage(final ChatMessageDto message)
+    {
+        buffer.append("{\"message\":");
+        writeString(message.getMessage());
+        buffer.append(",\"sender\":");
+        writeString(message.getSender());
+        buffer.append(",\"received\":\"");
+        writeInstant(message.getWhenMillis());
+        buffer.append("\",\"sequence\":").append(message.getSequence()).append('}');
+    }
+
+    private void writeStrings(final Collection<String> values)
+    {
+        buffer.append('[');
+        boolean first = true;
+        for (String value : values)
+        {
+            if (!first)
+            {
+                buffer.append(',');
+            }
+            writeString(value);
+            first = false;
+        }
+        buffer.append(']');
+    }
+
+    private void writeString(final String value)
+    {
+        if (value == null)
+        {
+            buffer.append("null");
+            return;
+        }
+        buffer.append('"');
+        int start = 0;
+        final int length = value.length();
+        for (int i = 0; i < length; i++)
+        {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\')
+            {
+                continue;
+            }
+            buffer.append(value, start, i);
+            start = i + 1;
+            switch (c)
+            {
+                case '"':
+                    buffer.append("\\\"");
+                    break;
+                case '\\':
+                    buffer.append("\\\\");
+                    break;
+                case '\b':
+                    buffer.append("\\b");
+                    break;
+                case '\f':
+                    buffer.append("\\f");
+                    break;
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+                case '\r':
+                    buffer.append("\\r");
+                    break;
+                case '\t':
+                    buffer.append("\\t");
+                    break;
+                default:
+                    buffer.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        buffer.append(value, start, length).append('"');
+    }
+
+    /**
+     * Same output as {@link DateTimeFormatter#ISO_INSTANT} for millisecond precision instants.
+     */
+    private void writeInstant(final long epochMillis)
+    {
+        final long second = Math.floorDiv(epochMillis, 1000L);
+        final int millis = (int) Math.floorMod(epochMillis, 1000L);
+        if (second != cachedSecond)
+        {
+            final String formatted = DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(second));
+            cachedSecondPrefix = formatted.substring(0, formatted.length() - 1);
+            cachedSecond = second;
+        }
+        buffer.append(cachedSecondPrefix);
+        if (millis != 0)
+        {
+            buffer.append('.')
+                    .append((char) ('0' + millis / 100))
+                    .append((char) ('0' + millis / 10 % 10))
+                    .append((char) ('0' + millis % 10));
+        }
+        buffer.append('Z');
+    }
+}
@@ -0,0 +1,158 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.concurrent.Task;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Serves the {@link ChatMetrics} in the Prometheus text format: {@code /metrics} those of this frontend,
+ * {@code /metrics/backend} those each backend stage last reported to {@link ChatStats}, labelled with the stage.
+ * <p>
+ * The per room metrics, {@code chat.room.<name>.<metric>}, become {@code chat_room_<metric>{room="<name>"}}.
+ * The samples of a family are written together, after its {@code HELP} and {@code TYPE} lines.
+ */
+@Path("/metrics")
+public class ChatMetricsResource
+{
+    private static final String TEXT_FORMAT = "text/plain; version=0.0.4";
+    private static final String ROOM_PREFIX = "chat.room.";
+
+    @GET
+    @Produces(TEXT_FORMAT)
+    public String frontend()
+    {
+        return format(Collections.singletonMap(null, ChatMetrics.snapshot()), ChatMetrics.types());
+    }
+
+    @GET
+    @Path("backend")
+    @Produces(TEXT_FORMAT)
+    public void backend(@Suspended final AsyncResponse response)
+    {
+        final ChatStats stats = Actor.getReference(ChatStats.class, "0");
+        final Task<Map<String, Map<String, Long>>> snapshot = stats.snapshot();
+        final Task<Map<String, String>> types = stats.types();
+        Task.allOf(snapshot, types).whenComplete((x, ex) -> {
+            if (ex != null)
+            {
+                response.resume(ex);
+            }
+            else
+            {
+                response.resume(format(snapshot.join(), types.join()));
+            }
+        });
+    }
+
+    /**
+     * @param stages the metrics of each stage, by stage; a null stage is written without a stage label
+     */
+    static String format(final Map<String, Map<String, Long>> stages, final Map<String, String> types)
+    {
+        final Map<String, StringBuilder> families = new TreeMap<>();
+        final Map<String, String> help = new HashMap<>();
+        final Map<String, String> familyTypes = new HashMap<>();
+        stages.forEach((stage, snapshot) -> snapshot.forEach((name, value) -> {
+            final int metric = name.lastIndexOf('.');
+            final boolean room = name.startsWith(ROOM_PREFIX) && metric > ROOM_PREFIX.length();
+            final String family = room ? "chat_room_" + sanitize(name.substring(metric + 1)) : sanitize(name);
+            help.putIfAbsent(family, room ? ROOM_PREFIX + "<room>" + name.substring(metric) : name);
+            familyTypes.putIfAbsent(family, types.getOrDefault(name, "untyped"));
+            final StringBuilder out = families.computeIfAbsent(family, f -> new StringBuilder());
+            out.append(family);
+            if (room || stage != null)
+            {
+                out.append('{');
+                if (room)
+                {
+                    out.append("room=\"");
+                    escape(out, name.substring(ROOM_PREFIX.length(), metric));
+                    out.append('"');
+                }
+                if (stage != null)
+                {
+                    out.append(room ? ",stage=\"" : "stage=\"");
+                    escape(out, stage);
+                    out.append('"');
+                }
+                out.append('}');
+            }
+            out.append(' ').append(value).append('\n');
+        }));
+        final StringBuilder out = new StringBuilder(families.size() * 128);
+        families.forEach((family, samples) -> {
+            out.append("# HELP ").append(family).append(' ').append(help.get(family)).append('\n');
+            out.append("# TYPE ").append(family).append(' ').append(familyTypes.get(family)).append('\n');
+            out.append(samples);
+        });
+        return out.toString();
+    }
+
+    private static String sanitize(final String name)
+    {
+        final StringBuilder out = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++)
+        {
+            final char c = name.charAt(i);
+            out.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+        }
+        return out.toString();
+    }
+    private static void escape(final StringBuilder out, final String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"')
+            {
+                out.append('\\').append(c);
+            }
+            else if (c == '\n')
+            {
+                out.append("\\n");
+            }
+            else
+            {
+                out.append(c);
+            }
+        }
+    }
+}
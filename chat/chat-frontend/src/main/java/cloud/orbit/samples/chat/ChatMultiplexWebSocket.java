@@ -0,0 +1,234 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Web socket following any number of chat rooms over a single connection.
+ * <p>
+ * The client sends control frames to follow rooms:
+ * {@code {"subscribe":"room"}}, with {@code "since":N} when it has the messages up to {@code N}
+ * and {@code "user":"me"} to be listed in the presence of the room,
+ * and {@code {"unsubscribe":"room"}}, acknowledged by {@code {"unsubscribed":"room"}}.
+ * It says a message with {@code {"room":"room","sender":"me","message":"hi"}} in a room it follows.
+ * Every frame of a room, history included, comes with a {@code "room"} field; subscribing again
+ * to a followed room sends its history again, which is how a client catches up after a {@code missed} frame.
+ * <p>
+ * A socket follows at most {@code orbit.samples.chat.maxSubscriptions} rooms, the subscriptions past that
+ * are answered as unsubscribed.
+ */
+@ServerEndpoint("/sample/chats")
+public class ChatMultiplexWebSocket
+{
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChatMultiplexWebSocket.class);
+    private static final LongAdder activeSessions = new LongAdder();
+
+    static
+    {
+        ChatMetrics.register("chat.sessions.multiplexed", activeSessions::sum);
+    }
+    private static final int maxSubscriptions = Integer.getInteger("orbit.samples.chat.maxSubscriptions", 100);
+
+    private Session session;
+    private SessionOutbox outbox;
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final TokenBucket connectionRate = ChatAdmission.connectionBucket();
+
+    @OnOpen
+    public void onWebSocketConnect(Session session)
+    {
+        this.session = session;
+        // the drops of a socket shared by several rooms aren't accounted to any of them
+        outbox = new SessionOutbox(session);
+        activeSessions.increment();
+        logger.info("Multiplexed Socket Connected: " + session);
+    }
+
+    @OnMessage
+    public void onWebSocketText(String jsonMessage, Session session)
+    {
+        final String rejected = ChatAdmission.check(jsonMessage);
+        if (rejected != null)
+        {
+            outbox.send(rejected);
+            return;
+        }
+        try
+        {
+            onControlOrMessage(Json.createReader(new StringReader(jsonMessage)).readObject(), jsonMessage);
+        }
+        catch (JsonException | ClassCastException | NullPointerException e)
+        {
+            outbox.send(ChatAdmission.Rejection.MALFORMED.reject());
+        }
+    }
+
+    private void onControlOrMessage(final JsonObject jsonObject, final String jsonMessage)
+    {
+        if (jsonObject.containsKey("subscribe"))
+        {
+            final String overloaded = ChatAdmission.checkSubscribe();
+            if (overloaded != null)
+            {
+                outbox.send(ChatJsonEncoder.encodeTagged(jsonObject.getString("subscribe"), overloaded));
+                return;
+            }
+            final JsonNumber since = jsonObject.getJsonNumber("since");
+            final String user = jsonObject.getString("user", null);
+            subscribe(jsonObject.getString("subscribe"), since == null ? 0 : since.longValue(), user == null || user.isEmpty() ? null : user);
+        }
+        else if (jsonObject.containsKey("unsubscribe"))
+        {
+            unsubscribe(jsonObject.getString("unsubscribe"));
+        }
+        else
+        {
+            final Subscription subscription = subscriptions.get(jsonObject.getString("room"));
+            if (subscription == null)
+            {
+                logger.debug("Message for a room the socket doesn't follow: " + jsonMessage);
+                return;
+            }
+            final ChatMessageDto message = new ChatMessageDto();
+            message.setSender(jsonObject.getString("sender"));
+            message.setMessage(jsonObject.getString("message"));
+            final String rejected = ChatAdmission.checkSay(connectionRate, subscription.room);
+            if (rejected != null)
+            {
+                outbox.send(ChatJsonEncoder.encodeTagged(subscription.room.getName(), rejected));
+                return;
+            }
+            subscription.room.say(message);
+        }
+    }
+
+    private void subscribe(final String name, final long since, final String user)
+    {
+        Subscription subscription = subscriptions.get(name);
+        if (subscription == null)
+        {
+            if (subscriptions.size() >= maxSubscriptions)
+            {
+                outbox.send(ChatJsonEncoder.encodeUnsubscribed(name));
+                return;
+            }
+            subscription = new Subscription();
+            // listed under the name given on the first subscription
+            subscription.presenceName = user;
+            subscription.room = ChatRoom.join(name, subscription);
+            subscriptions.put(name, subscription);
+        }
+        subscription.room.history(since).thenAccept(frame -> outbox.send(ChatJsonEncoder.encodeTagged(name, frame)));
+        if (subscription.presenceName != null)
+        {
+            subscription.room.roster().thenAccept(frame -> outbox.send(ChatJsonEncoder.encodeTagged(name, frame)));
+        }
+    }
+
+    private void unsubscribe(final String name)
+    {
+        final Subscription subscription = subscriptions.remove(name);
+        if (subscription != null)
+        {
+            subscription.room.leave(subscription);
+        }
+        outbox.send(ChatJsonEncoder.encodeUnsubscribed(name));
+    }
+
+    @OnClose
+    public void onWebSocketClose(CloseReason reason)
+    {
+        logger.info("Multiplexed Socket Closed: " + reason);
+        outbox.close();
+        activeSessions.decrement();
+        subscriptions.values().forEach(subscription -> subscription.room.leave(subscription));
+        subscriptions.clear();
+    }
+
+    @OnError
+    public void onWebSocketError(Throwable cause)
+    {
+        logger.error("websocket reported an error", cause);
+    }
+
+    /**
+     * Membership of the socket in one of its rooms.
+     */
+    private class Subscription implements ChatRoomMember
+    {
+        ChatRoom room;
+        String presenceName;
+
+        @Override
+        public void send(final String frame)
+        {
+            outbox.send(frame);
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return session.isOpen();
+        }
+
+        @Override
+        public int queued()
+        {
+            return outbox.size();
+        }
+
+        @Override
+        public boolean isMultiplexed()
+        {
+            return true;
+        }
+
+        @Override
+        public String getPresenceName()
+        {
+            return presenceName;
+        }
+    }
+}
@@ -0,0 +1,850 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.concurrent.Task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Frontend local hub for a chat room.
+ * <p>
+ * Each frontend node registers a single observer per room with the chat actor
+ * and fans the messages out to its own web sockets in process.
+ * Sockets joining or leaving a room that already has local members never reach the actor.
+ * The members are either sockets of a single room or the subscriptions of multiplexed sockets,
+ * which get the frames tagged with the room name.
+ * <p>
+ * The room also keeps the recent history, loaded once and then kept current by the messages it observes,
+ * so connecting sockets get their history without asking the actor. Rooms whose members all left
+ * stay observed, with their history, until more than {@code orbit.samples.chat.idleRooms} rooms are idle;
+ * the least recently used ones are closed first.
+ * <p>
+ * The observers of all the rooms of a frontend share a {@link ChatLease}, renewed every
+ * {@code orbit.samples.chat.leaseRenewMillis}; the rooms drop them if the frontend stops renewing it.
+ * <p>
+ * A message said by a local member goes to the actor right away and opens a window of
+ * {@code orbit.samples.chat.sayBatchMillis}; the messages said within it are sent as a single batch when it closes,
+ * or as soon as they fill a batch.
+ * <p>
+ * Members with a presence name are listed in the presence of the room. Only the first local member
+ * of a name joining and the last one leaving reach the actor, coalesced over {@code orbit.samples.chat.presenceWindowMillis}.
+ * The room keeps the roster like the history, loaded once and then kept current by the presence deltas it observes,
+ * and sends both to the listed members only.
+ * <p>
+ * While it is open the room publishes the frames waiting in the outboxes of its members
+ * and the ones dropped for slow clients as {@code chat.room.<name>.*} gauges.
+ */
+public class ChatRoom implements ChatObserver
+{
+    private static final int HISTORY_SIZE = 100;
+
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChatRoom.class);
+    private static final LongAdder historyHits = ChatMetrics.counter("chat.historyCache.hits");
+    private static final LongAdder historyMisses = ChatMetrics.counter("chat.historyCache.misses");
+    private static final LongAdder historyReloads = ChatMetrics.counter("chat.historyCache.reloads");
+    private static final LongAdder roomsEvicted = ChatMetrics.counter("chat.historyCache.evictions");
+    private static final int maxIdleRooms = Integer.getInteger("orbit.samples.chat.idleRooms", 1000);
+    private static final long sayBatchMillis = Long.getLong("orbit.samples.chat.sayBatchMillis", 5);
+    private static final int MAX_SAY_BATCH = 100;
+    private static final long presenceWindowMillis = Long.getLong("orbit.samples.chat.presenceWindowMillis", 1000);
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "chat-rooms");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // lease of this frontend, covering the observers of all its rooms
+    private static final String lease = UUID.randomUUID().toString();
+    private static final long leaseRenewMillis = Long.getLong("orbit.samples.chat.leaseRenewMillis", 10_000);
+    private static ScheduledFuture<?> leaseRenewal;
+
+    private static final ConcurrentMap<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+    // least recently used first
+    private static final LinkedHashMap<String, ChatRoom> idleRooms = new LinkedHashMap<>();
+
+    static
+    {
+        ChatMetrics.register("chat.historyCache.rooms", rooms::size);
+    }
+
+    private final String name;
+    private final Chat chat;
+    private final Set<ChatRoomMember> members = ConcurrentHashMap.newKeySet();
+    private final LongAdder outboundDropped = new LongAdder();
+    private final LongAdder outboundDisconnected = new LongAdder();
+    private final LongSupplier queuedGauge = this::outboundQueued;
+    private final LongSupplier droppedGauge = outboundDropped::sum;
+    private final LongSupplier disconnectedGauge = outboundDisconnected::sum;
+    // messages said by the local members, null when not limited
+    private final TokenBucket inboundRate = ChatAdmission.roomBucket();
+    private boolean closed;
+
+    // newest messages, oldest first, only meaningful once loaded
+    private final ArrayDeque<ChatMessageDto> recent = new ArrayDeque<>(HISTORY_SIZE);
+    private boolean loaded;
+    private Task<Void> loading;
+    private List<ChatMessageDto> observedWhileLoading;
+    private String historyFrame;
+
+    // local members of each presence name
+    private final Map<String, Integer> localPresence = new HashMap<>();
+    private final Set<String> pendingJoined = new HashSet<>();
+    private final Set<String> pendingLeft = new HashSet<>();
+    private boolean presenceScheduled;
+
+    // members present in the room through any frontend, only meaningful once loaded
+    private final Set<String> roster = new TreeSet<>();
+    private boolean rosterLoaded;
+    private Task<Void> rosterLoading;
+    // latest change of each member observed while loading
+    private Map<String, Boolean> presenceWhileLoading;
+    private String rosterFrame;
+
+    // messages said within the open window, sent together when it closes
+    private final Object inboundLock = new Object();
+    private List<ChatMessageDto> inbound;
+    private boolean windowOpen;
+
+    private ChatRoom(final String name)
+    {
+        this.name = name;
+        this.chat = Actor.getReference(Chat.class, name);
+        ChatMetrics.register(metricName("outboundQueued"), queuedGauge);
+        ChatMetrics.register(metricName("outboundDropped"), droppedGauge);
+        ChatMetrics.register(metricName("outboundDisconnected"), disconnectedGauge);
+    }
+
+    public static ChatRoom join(final String name, final ChatRoomMember member)
+    {
+        while (true)
+        {
+            final ChatRoom room = rooms.computeIfAbsent(name, ChatRoom::new);
+            if (room.add(member))
+            {
+                synchronized (idleRooms)
+                {
+                    idleRooms.remove(name, room);
+                }
+                return room;
+            }
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public Chat getChat()
+    {
+        return chat;
+    }
+
+    private synchronized boolean add(final ChatRoomMember member)
+    {
+        if (closed)
+        {
+            // lost the race against the room being closed, the caller retries with a new room
+            return false;
+        }
+        if (members.isEmpty() && !loaded && loading == null)
+        {
+            // new room: observe it first, then load the history, the messages said in between come twice
+            final Task<Boolean> joined = chat.joinWithLease(this, lease);
+            load(joined.thenCompose(j -> chat.getHistory(HISTORY_SIZE)));
+            if (!rosterLoaded && rosterLoading == null)
+            {
+                loadRoster(joined.thenCompose(j -> chat.getPresence()), false);
+            }
+        }
+        members.add(member);
+        if (member.getPresenceName() != null)
+        {
+            arrivedLocally(member.getPresenceName());
+        }
+        return true;
+    }
+
+    public void leave(final ChatRoomMember member)
+    {
+        synchronized (this)
+        {
+            if (!members.remove(member))
+            {
+                return;
+            }
+            if (member.getPresenceName() != null)
+            {
+                departedLocally(member.getPresenceName());
+            }
+            if (!members.isEmpty())
+            {
+                return;
+            }
+        }
+        // outside of the room's lock, evicting locks the evicted rooms
+        final List<ChatRoom> evicted = new ArrayList<>();
+        synchronized (idleRooms)
+        {
+            idleRooms.remove(name);
+            idleRooms.put(name, this);
+            final Iterator<ChatRoom> eldest = idleRooms.values().iterator();
+            while (idleRooms.size() > maxIdleRooms)
+            {
+                evicted.add(eldest.next());
+                eldest.remove();
+            }
+        }
+        evicted.forEach(ChatRoom::evict);
+    }
+
+    /**
+     * Starts renewing the lease of this frontend, once its stage is up.
+     */
+    static synchronized void startLeaseRenewal()
+    {
+        if (leaseRenewal == null)
+        {
+            leaseRenewal = scheduler.scheduleWithFixedDelay(ChatRoom::renewLease, 0, leaseRenewMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops renewing the lease, the rooms drop the observers of this frontend once it expires.
+     */
+    static synchronized void stopLeaseRenewal()
+    {
+        if (leaseRenewal != null)
+        {
+            leaseRenewal.cancel(false);
+            leaseRenewal = null;
+        }
+    }
+
+    /**
+     * Renews the lease of this frontend and drops the sockets that closed without telling.
+     */
+    private static void renewLease()
+    {
+        try
+        {
+            Actor.getReference(ChatLease.class, lease).renew(leaseRenewMillis * 3).thenAccept(alive -> {
+                if (!alive)
+                {
+                    logger.warn("The lease of this frontend had expired, joining the chat rooms again");
+                    rooms.values().forEach(ChatRoom::rejoin);
+                }
+            }).exceptionally(ex -> {
+                logger.error("Error renewing the frontend lease", ex);
+                return null;
+            });
+            rooms.values().forEach(ChatRoom::dropClosedMembers);
+        }
+        catch (RuntimeException e)
+        {
+            // keeps the renewal scheduled
+            logger.error("Error renewing the frontend lease", e);
+        }
+    }
+
+    private synchronized void rejoin()
+    {
+        if (closed)
+        {
+            return;
+        }
+        // the messages said while the room had dropped us are missing from the history
+        loaded = false;
+        recent.clear();
+        historyFrame = null;
+        // and so are the local members from its presence, the listed members get the roster again
+        rosterLoaded = false;
+        roster.clear();
+        rosterFrame = null;
+        final Task<Void> joined = chat.joinWithLease(this, lease).thenRun(this::presentAgain);
+        joined.exceptionally(ex -> {
+            logger.error("Error joining chat room " + name, ex);
+            return null;
+        });
+        if (rosterLoading == null)
+        {
+            loadRoster(joined.thenCompose(() -> chat.getPresence()), true);
+        }
+    }
+
+    private void dropClosedMembers()
+    {
+        for (ChatRoomMember member : members)
+        {
+            if (!member.isOpen())
+            {
+                leave(member);
+            }
+        }
+    }
+
+    private synchronized void evict()
+    {
+        if (closed || !members.isEmpty())
+        {
+            // someone joined since
+            return;
+        }
+        closed = true;
+        roomsEvicted.increment();
+        rooms.remove(name, this);
+        chat.leave(this);
+        recent.clear();
+        historyFrame = null;
+        rosterLoaded = false;
+        roster.clear();
+        rosterFrame = null;
+        ChatMetrics.unregister(metricName("outboundQueued"), queuedGauge);
+        ChatMetrics.unregister(metricName("outboundDropped"), droppedGauge);
+        ChatMetrics.unregister(metricName("outboundDisconnected"), disconnectedGauge);
+    }
+
+    /**
+     * History frame for a connecting socket, only the messages after {@code since} if it has seen some.
+     */
+    Task<String> history(final long since)
+    {
+        synchronized (this)
+        {
+            if (loaded)
+            {
+                historyHits.increment();
+                return Task.fromValue(cachedHistory(since));
+            }
+            if (loading == null && !closed)
+            {
+                // the observed messages had a gap, or the last load failed
+                historyReloads.increment();
+                load(chat.getHistory(HISTORY_SIZE));
+            }
+            if (loading != null)
+            {
+                // the flash crowd waits for the load already in flight
+                return loading.thenCompose(() -> loadedHistory(since));
+            }
+        }
+        return loadedHistory(since);
+    }
+
+    private Task<String> loadedHistory(final long since)
+    {
+        synchronized (this)
+        {
+            if (loaded)
+            {
+                historyHits.increment();
+                return Task.fromValue(cachedHistory(since));
+            }
+        }
+        historyMisses.increment();
+        if (since > 0)
+        {
+            return chat.getHistorySince(since, HISTORY_SIZE).thenApply(ms -> historyFrame(since, ms));
+        }
+        return chat.getHistory(HISTORY_SIZE).thenApply(ChatJsonEncoder::encodeHistory);
+    }
+
+    private void load(final Task<List<ChatMessageDto>> history)
+    {
+        observedWhileLoading = new ArrayList<>();
+        loading = history.handle((messages, ex) -> {
+            loaded(messages, ex);
+            return null;
+        });
+        if (loading.isDone())
+        {
+            // completed in this thread, loaded() ran before the assignment
+            loading = null;
+        }
+    }
+
+    private synchronized void loaded(final List<ChatMessageDto> messages, final Throwable error)
+    {
+        final List<ChatMessageDto> observed = observedWhileLoading;
+        observedWhileLoading = null;
+        loading = null;
+        if (error != null)
+        {
+            logger.error("Error loading the history of chat room " + name, error);
+            return;
+        }
+        recent.clear();
+        historyFrame = null;
+        recent.addAll(messages);
+        loaded = true;
+        for (ChatMessageDto message : observed)
+        {
+            if (recent.isEmpty() || message.getSequence() > recent.peekLast().getSequence())
+            {
+                remember(message);
+            }
+        }
+    }
+
+    private void remember(final ChatMessageDto message)
+    {
+        if (!recent.isEmpty() && message.getSequence() != 0)
+        {
+            final long last = recent.peekLast().getSequence();
+            if (message.getSequence() <= last)
+            {
+                return;
+            }
+            if (message.getSequence() != last + 1)
+            {
+                // lost some messages, reloaded by the next socket asking for the history
+                loaded = false;
+                recent.clear();
+                historyFrame = null;
+                return;
+            }
+        }
+        recent.addLast(message);
+        if (recent.size() > HISTORY_SIZE)
+        {
+            recent.pollFirst();
+        }
+        historyFrame = null;
+    }
+
+    private String cachedHistory(final long since)
+    {
+        if (since <= 0)
+        {
+            if (historyFrame == null)
+            {
+                historyFrame = ChatJsonEncoder.encodeHistory(new ArrayList<>(recent));
+            }
+            return historyFrame;
+        }
+        final long newest = recent.isEmpty() ? 0 : recent.peekLast().getSequence();
+        final int newer = (int) Math.max(0, Math.min(newest - since, recent.size()));
+        final List<ChatMessageDto> messages = new ArrayList<>(newer);
+        final Iterator<ChatMessageDto> newestFirst = recent.descendingIterator();
+        for (int i = 0; i < newer; i++)
+        {
+            messages.add(0, newestFirst.next());
+        }
+        return historyFrame(since, messages);
+    }
+
+    private static String historyFrame(final long since, final List<ChatMessageDto> messages)
+    {
+        // a reconnecting client only needs what it missed, unless it missed more than a history's worth
+        return messages.isEmpty() || messages.get(0).getSequence() == since + 1
+                ? ChatJsonEncoder.encodeDelta(messages)
+                : ChatJsonEncoder.encodeHistory(messages);
+    }
+
+    private void arrivedLocally(final String member)
+    {
+        if (localPresence.merge(member, 1, Integer::sum) == 1)
+        {
+            presenceChanged(member, pendingLeft, pendingJoined);
+        }
+    }
+
+    private void departedLocally(final String member)
+    {
+        if (localPresence.computeIfPresent(member, (k, n) -> n > 1 ? n - 1 : null) == null)
+        {
+            presenceChanged(member, pendingJoined, pendingLeft);
+        }
+    }
+
+    /**
+     * Queues the change for the next presence update of the actor, unless it undoes a change still queued.
+     */
+    private void presenceChanged(final String member, final Set<String> undone, final Set<String> pending)
+    {
+        if (!undone.remove(member))
+        {
+            pending.add(member);
+        }
+        if (!presenceScheduled)
+        {
+            presenceScheduled = true;
+            scheduler.schedule(this::flushPresence, presenceWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushPresence()
+    {
+        final List<String> joined;
+        final List<String> left;
+        synchronized (this)
+        {
+            presenceScheduled = false;
+            if (closed || pendingJoined.isEmpty() && pendingLeft.isEmpty())
+            {
+                // leaving the room took the members of an evicted room out of its presence
+                pendingJoined.clear();
+                pendingLeft.clear();
+                return;
+            }
+            joined = new ArrayList<>(pendingJoined);
+            left = new ArrayList<>(pendingLeft);
+            pendingJoined.clear();
+            pendingLeft.clear();
+        }
+        chat.updatePresence(this, joined, left);
+    }
+
+    /**
+     * Lists the local members again after the actor dropped them with the observer.
+     */
+    private void presentAgain()
+    {
+        synchronized (this)
+        {
+            pendingJoined.clear();
+            pendingLeft.clear();
+            pendingJoined.addAll(localPresence.keySet());
+        }
+        flushPresence();
+    }
+
+    /**
+     * Roster frame for a connecting member.
+     */
+    Task<String> roster()
+    {
+        synchronized (this)
+        {
+            if (rosterLoaded)
+            {
+                return Task.fromValue(rosterFrame());
+            }
+            if (rosterLoading == null && !closed)
+            {
+                // the last load failed
+                loadRoster(chat.getPresence(), false);
+            }
+            if (rosterLoading != null)
+            {
+                return rosterLoading.thenCompose(() -> loadedRoster());
+            }
+        }
+        return loadedRoster();
+    }
+
+    private Task<String> loadedRoster()
+    {
+        synchronized (this)
+        {
+            if (rosterLoaded)
+            {
+                return Task.fromValue(rosterFrame());
+            }
+        }
+        return chat.getPresence().thenApply(ChatJsonEncoder::encodeRoster);
+    }
+
+    private void loadRoster(final Task<List<String>> names, final boolean resend)
+    {
+        presenceWhileLoading = new HashMap<>();
+        rosterLoading = names.handle((members, ex) -> {
+            rosterLoaded(members, ex, resend);
+            return null;
+        });
+        if (rosterLoading.isDone())
+        {
+            // completed in this thread, rosterLoaded() ran before the assignment
+            rosterLoading = null;
+        }
+    }
+
+    private void rosterLoaded(final List<String> names, final Throwable error, final boolean resend)
+    {
+        final String frame;
+        synchronized (this)
+        {
+            final Map<String, Boolean> observed = presenceWhileLoading;
+            presenceWhileLoading = null;
+            rosterLoading = null;
+            if (error != null)
+            {
+                logger.error("Error loading the roster of chat room " + name, error);
+                return;
+            }
+            roster.clear();
+            roster.addAll(names);
+            // the deltas observed meanwhile may or may not be in the loaded roster, they are newer either way
+            observed.forEach((member, present) -> {
+                if (present)
+                {
+                    roster.add(member);
+                }
+                else
+                {
+                    roster.remove(member);
+                }
+            });
+            rosterLoaded = true;
+            rosterFrame = null;
+            frame = resend ? rosterFrame() : null;
+        }
+        if (frame != null)
+        {
+            send(frame, true);
+        }
+    }
+
+    private String rosterFrame()
+    {
+        if (rosterFrame == null)
+        {
+            rosterFrame = ChatJsonEncoder.encodeRoster(roster);
+        }
+        return rosterFrame;
+    }
+
+    void outboundDropped()
+    {
+        outboundDropped.increment();
+    }
+
+    void outboundDisconnected()
+    {
+        outboundDisconnected.increment();
+    }
+
+    private long outboundQueued()
+    {
+        long queued = 0;
+        for (ChatRoomMember member : members)
+        {
+            queued += member.queued();
+        }
+        return queued;
+    }
+
+    private String metricName(final String metric)
+    {
+        return "chat.room." + name + "." + metric;
+    }
+
+    /**
+     * Takes a token from the rate limit of the messages said in this room on this node.
+     */
+    boolean admit()
+    {
+        return inboundRate == null || inboundRate.tryAcquire();
+    }
+
+    /**
+     * Says the message right away if no window is open, otherwise with the others said in this room on this node
+     * until the window closes, waiting at most {@code orbit.samples.chat.sayBatchMillis}.
+     */
+    void say(final ChatMessageDto message)
+    {
+        if (sayBatchMillis <= 0)
+        {
+            chat.say(message);
+            return;
+        }
+        boolean sendNow = false;
+        List<ChatMessageDto> full = null;
+        synchronized (inboundLock)
+        {
+            if (!windowOpen)
+            {
+                windowOpen = true;
+                sendNow = true;
+                scheduler.schedule(this::closeWindow, sayBatchMillis, TimeUnit.MILLISECONDS);
+            }
+            else
+            {
+                if (inbound == null)
+                {
+                    inbound = new ArrayList<>();
+                }
+                inbound.add(message);
+                if (inbound.size() >= MAX_SAY_BATCH)
+                {
+                    full = inbound;
+                    inbound = null;
+                }
+            }
+        }
+        if (sendNow)
+        {
+            chat.say(message);
+        }
+        else if (full != null)
+        {
+            sayBatch(full);
+        }
+    }
+
+    /**
+     * Sends the messages said within the window; a window that had some stays open for the next ones,
+     * so a busy room keeps sending one batch per window.
+     */
+    private void closeWindow()
+    {
+        final List<ChatMessageDto> batch;
+        synchronized (inboundLock)
+        {
+            batch = inbound;
+            inbound = null;
+            if (batch == null)
+            {
+                windowOpen = false;
+                return;
+            }
+            scheduler.schedule(this::closeWindow, sayBatchMillis, TimeUnit.MILLISECONDS);
+        }
+        sayBatch(batch);
+    }
+
+    private void sayBatch(final List<ChatMessageDto> batch)
+    {
+        if (batch.size() == 1)
+        {
+            chat.say(batch.get(0));
+        }
+        else
+        {
+            chat.sayBatch(new ChatMessageList(batch));
+        }
+    }
+
+    @Override
+    public Task<Void> receiveMessage(final ChatMessageDto message)
+    {
+        synchronized (this)
+        {
+            observed(message);
+        }
+        // encoded once, every local member gets the same frame
+        send(ChatJsonEncoder.encodeMessage(message));
+        return Task.done();
+    }
+
+    @Override
+    public Task<Void> receiveMessages(final List<ChatMessageDto> messages)
+    {
+        synchronized (this)
+        {
+            messages.forEach(this::observed);
+        }
+        // a single frame for the batch
+        send(ChatJsonEncoder.encodeDelta(messages));
+        return Task.done();
+    }
+
+    @Override
+    public Task<Void> receivePresence(final List<String> joined, final List<String> left)
+    {
+        synchronized (this)
+        {
+            if (rosterLoaded)
+            {
+                roster.addAll(joined);
+                roster.removeAll(left);
+                rosterFrame = null;
+            }
+            else if (presenceWhileLoading != null)
+            {
+                joined.forEach(member -> presenceWhileLoading.put(member, true));
+                left.forEach(member -> presenceWhileLoading.put(member, false));
+            }
+        }
+        // however many members came and went, the listed ones get a single frame per window
+        send(ChatJsonEncoder.encodePresence(joined, left), true);
+        return Task.done();
+    }
+
+    private void observed(final ChatMessageDto message)
+    {
+        if (loaded)
+        {
+            remember(message);
+        }
+        else if (observedWhileLoading != null)
+        {
+            observedWhileLoading.add(message);
+        }
+    }
+
+    private void send(final String frame)
+    {
+        send(frame, false);
+    }
+
+    private void send(final String frame, final boolean listedOnly)
+    {
+        String tagged = null;
+        for (ChatRoomMember member : members)
+        {
+            if (listedOnly && member.getPresenceName() == null)
+            {
+                continue;
+            }
+            if (member.isMultiplexed())
+            {
+                if (tagged == null)
+                {
+                    tagged = ChatJsonEncoder.encodeTagged(name, frame);
+                }
+                member.send(tagged);
+            }
+            else
+            {
+                member.send(frame);
+            }
+        }
+    }
+}
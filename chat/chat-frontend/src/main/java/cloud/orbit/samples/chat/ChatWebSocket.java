@@ -29,11 +29,8 @@ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package cloud.orbit.samples.chat;
 
 
-import cloud.orbit.actors.Actor;
-import cloud.orbit.concurrent.Task;
-
 import javax.json.Json;
-import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.websocket.CloseReason;
 import javax.websocket.OnClose;
@@ -44,76 +41,141 @@ import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
 
 import java.io.StringReader;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 
 @ServerEndpoint("/sample/chat/{chatName}")
-public class ChatWebSocket
+public class ChatWebSocket implements ChatRoomMember
 {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChatWebSocket.class);
-    private Chat chat;
-    private ChatObserver observer;
+    private static final LongAdder activeSessions = new LongAdder();
+
+    static
+    {
+        ChatMetrics.register("chat.sessions.active", activeSessions::sum);
+    }
+    private Session session;
+    private SessionOutbox outbox;
+    private ChatRoom room;
+    private String presenceName;
+    private final TokenBucket connectionRate = ChatAdmission.connectionBucket();
 
     @OnOpen
     public void onWebSocketConnect(Session session)
     {
-        chat = Actor.getReference(Chat.class, session.getPathParameters().get("chatName"));
-        observer = new ChatObserver()
+        this.session = session;
+        outbox = new SessionOutbox(session);
+        activeSessions.increment();
+        presenceName = requestParameter(session, "user");
+        room = ChatRoom.join(session.getPathParameters().get("chatName"), this);
+        outbox.attach(room);
+
+        room.history(lastSeenSequence(session)).thenAccept(this::send);
+        if (presenceName != null)
         {
-            @Override
-            public Task<Void> receiveMessage(final ChatMessageDto message)
-            {
-                JsonObject jsonObject = Json.createObjectBuilder()
-                        .add("message", message.getMessage())
-                        .add("sender", message.getSender())
-                        .add("received", ZonedDateTime.ofInstant(message.getWhen().toInstant(), ZoneId.systemDefault()).format(DateTimeFormatter.ISO_INSTANT))
-                        .build();
-
-                session.getAsyncRemote().sendObject(jsonObject.toString());
-                return Task.done();
-            }
-        };
-        chat.join(observer);
-
-        chat.getHistory(100).thenAccept(ms -> {
-                    JsonArrayBuilder array = Json.createArrayBuilder();
-                    ms.stream().forEach(
-                            m -> array.add(
-                                    Json.createObjectBuilder()
-                                            .add("message", m.getMessage())
-                                            .add("sender", m.getSender())
-                                            .add("received", m.getWhen().toInstant().atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ISO_INSTANT))
-                                            .build()
-                            )
-                    );
-                    session.getAsyncRemote().sendObject(
-                            Json.createObjectBuilder().add("history", array).build().toString());
-                }
-        );
+            room.roster().thenAccept(this::send);
+        }
 
         logger.info("Socket Connected: " + session);
     }
 
+    /**
+     * Sequence number of the last message a reconnecting client has, from the {@code since} query parameter.
+     */
+    private static long lastSeenSequence(final Session session)
+    {
+        final String since = requestParameter(session, "since");
+        if (since == null)
+        {
+            return 0;
+        }
+        try
+        {
+            return Long.parseLong(since);
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * First value of the query parameter, null when it is missing or empty; {@code user} lists the socket in the presence of the room.
+     */
+    private static String requestParameter(final Session session, final String name)
+    {
+        final List<String> values = session.getRequestParameterMap().get(name);
+        return values == null || values.isEmpty() || values.get(0).isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public void send(final String frame)
+    {
+        outbox.send(frame);
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return session.isOpen();
+    }
+
+    @Override
+    public int queued()
+    {
+        return outbox.size();
+    }
+
+    @Override
+    public String getPresenceName()
+    {
+        return presenceName;
+    }
+
     @OnMessage
     public void onWebSocketText(String jsonMessage, Session session)
     {
-        JsonObject jsonObject = Json.createReader(new StringReader(jsonMessage)).readObject();
-
-        ChatMessageDto message = new ChatMessageDto();
-        message.setSender(jsonObject.getString("sender"));
-        message.setMessage(jsonObject.getString("message"));
+        // every frame says a message in the room of the socket, the rates are only taken by well formed ones
+        final String oversize = ChatAdmission.check(jsonMessage);
+        if (oversize != null)
+        {
+            send(oversize);
+            return;
+        }
+        final ChatMessageDto message = new ChatMessageDto();
+        try
+        {
+            JsonObject jsonObject = Json.createReader(new StringReader(jsonMessage)).readObject();
+            message.setSender(jsonObject.getString("sender"));
+            message.setMessage(jsonObject.getString("message"));
+        }
+        catch (JsonException | ClassCastException | NullPointerException e)
+        {
+            send(ChatAdmission.Rejection.MALFORMED.reject());
+            return;
+        }
+        final String rejected = ChatAdmission.checkSay(connectionRate, room);
+        if (rejected != null)
+        {
+            send(rejected);
+            return;
+        }
 
-        logger.info("Received TEXT message: " + message);
-        chat.say(message);
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Received TEXT message: " + message);
+        }
+        room.say(message);
     }
 
     @OnClose
     public void onWebSocketClose(CloseReason reason)
     {
         logger.info("Socket Closed: " + reason);
-        chat.leave(observer);
+        outbox.close();
+        activeSessions.decrement();
+        room.leave(this);
     }
 
     @OnError
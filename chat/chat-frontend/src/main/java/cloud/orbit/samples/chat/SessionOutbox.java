@@ -0,0 +1,256 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded queue of the frames waiting to be written to a web socket.
+ * <p>
+ * Frames are written in batches of up to {@code orbit.samples.chat.outboundBatchSize}, sent back to back
+ * so the container can gather them in a single write, and the next batch waits until the previous one is
+ * written: a slow client only ever holds one batch in the container buffers, the rest waits here.
+ * Once {@code orbit.samples.chat.outboundQueueSize} frames are waiting the {@link OverflowPolicy} applies.
+ */
+class SessionOutbox
+{
+    enum OverflowPolicy
+    {
+        /**
+         * Drops the oldest waiting frame.
+         */
+        DROP_OLDEST,
+        /**
+         * Drops the oldest waiting frame and tells the client how many it missed.
+         */
+        COALESCE,
+        /**
+         * Closes the web socket, the client reconnects and reloads the history.
+         */
+        DISCONNECT
+    }
+
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(SessionOutbox.class);
+    private static final LongAdder dropped = ChatMetrics.counter("chat.outbound.dropped");
+    private static final LongAdder disconnected = ChatMetrics.counter("chat.outbound.disconnected");
+    private static final LongAdder sendFailures = ChatMetrics.counter("chat.outbound.sendFailures");
+    // frames waiting in all the outboxes
+    private static final LongAdder queued = new LongAdder();
+
+    private static final int queueSize = Integer.getInteger("orbit.samples.chat.outboundQueueSize", 256);
+    private static final int batchSize = Integer.getInteger("orbit.samples.chat.outboundBatchSize", 16);
+    private static final OverflowPolicy overflowPolicy = OverflowPolicy.valueOf(
+            System.getProperty("orbit.samples.chat.overflowPolicy", OverflowPolicy.COALESCE.name()).toUpperCase(Locale.ROOT));
+
+    private final Session session;
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+    private volatile ChatRoom room;
+    private int inFlight;
+    private long missed;
+    private boolean closed;
+
+    SessionOutbox(final Session session)
+    {
+        this.session = session;
+    }
+
+    /**
+     * Sets the room the drops are accounted to.
+     */
+    void attach(final ChatRoom room)
+    {
+        this.room = room;
+    }
+
+    void send(final String frame)
+    {
+        final List<String> batch;
+        boolean disconnect = false;
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+            if (queue.size() >= queueSize)
+            {
+                if (overflowPolicy == OverflowPolicy.DISCONNECT)
+                {
+                    closed = true;
+                    disconnect = true;
+                    clear();
+                }
+                else
+                {
+                    queue.poll();
+                    queued.decrement();
+                    if (overflowPolicy == OverflowPolicy.COALESCE)
+                    {
+                        missed++;
+                    }
+                    dropped();
+                }
+            }
+            if (!closed)
+            {
+                queue.add(frame);
+                queued.increment();
+            }
+            batch = nextBatch();
+        }
+        if (disconnect)
+        {
+            disconnect();
+        }
+        write(batch);
+    }
+
+    synchronized int size()
+    {
+        return queue.size();
+    }
+
+    synchronized void close()
+    {
+        closed = true;
+        clear();
+    }
+
+    private void clear()
+    {
+        queued.add(-queue.size());
+        queue.clear();
+    }
+
+    static long queuedFrames()
+    {
+        return queued.sum();
+    }
+
+    /**
+     * Takes the next batch, if no other batch is being written.
+     */
+    private List<String> nextBatch()
+    {
+        if (closed || inFlight > 0 || (queue.isEmpty() && missed == 0))
+        {
+            return null;
+        }
+        final List<String> batch = new ArrayList<>(Math.min(batchSize, queue.size() + 1));
+        if (missed > 0)
+        {
+            // the dropped frames were the oldest ones, the gap is right before the head of the queue
+            batch.add(ChatJsonEncoder.encodeMissed(missed));
+            missed = 0;
+        }
+        while (batch.size() < batchSize && !queue.isEmpty())
+        {
+            batch.add(queue.poll());
+            queued.decrement();
+        }
+        inFlight = batch.size();
+        return batch;
+    }
+
+    private void write(final List<String> batch)
+    {
+        if (batch == null)
+        {
+            return;
+        }
+        for (String frame : batch)
+        {
+            try
+            {
+                session.getAsyncRemote().sendText(frame, this::written);
+            }
+            catch (RuntimeException e)
+            {
+                // the session is already closing
+                written(new SendResult(e));
+            }
+        }
+    }
+
+    private void written(final SendResult result)
+    {
+        if (!result.isOK())
+        {
+            sendFailures.increment();
+            logger.debug("Error writing to web socket", result.getException());
+        }
+        final List<String> batch;
+        synchronized (this)
+        {
+            if (--inFlight > 0)
+            {
+                return;
+            }
+            batch = nextBatch();
+        }
+        write(batch);
+    }
+
+    private void dropped()
+    {
+        dropped.increment();
+        final ChatRoom current = room;
+        if (current != null)
+        {
+            current.outboundDropped();
+        }
+    }
+
+    private void disconnect()
+    {
+        disconnected.increment();
+        final ChatRoom current = room;
+        if (current != null)
+        {
+            current.outboundDisconnected();
+        }
+        try
+        {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Too slow to keep up with the room"));
+        }
+        catch (IOException e)
+        {
+            logger.debug("Error closing slow web socket", e);
+        }
+    }
+}
@@ -38,7 +38,15 @@ public class WebMain
     public static void main(String[] args) throws ExecutionException, InterruptedException
     {
         final Container container = new Container();
-        container.start();
+        container.start().join();
+        ChatAdmission.start();
+        ChatRoom.startLeaseRenewal();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ChatRoom.stopLeaseRenewal();
+            ChatAdmission.stop();
+            container.stop().join();
+        }, "chat-frontend-shutdown"));
     }
 }
 
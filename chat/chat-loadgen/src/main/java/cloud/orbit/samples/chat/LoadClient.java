@@ -0,0 +1,187 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One simulated chat user, connected to a room through its own web socket.
+ * <p>
+ * The messages it sends carry the time they were due to be sent, so every member of the room
+ * can measure the delivery latency, including any time the sender itself was running behind.
+ */
+class LoadClient extends Endpoint
+{
+    static final String MARKER = "lg:";
+
+    private static final String MESSAGE_PREFIX = "{\"message\":\"" + MARKER;
+    private static final String HISTORY_PREFIX = "{\"history\":";
+
+    private final LoadGenerator generator;
+    private final String sender;
+    private final String padding;
+    private final CountDownLatch historyReceived;
+    // the users of the room with an open socket, this one included while it is open
+    private final AtomicInteger roomMembers;
+    private volatile Session session;
+    private volatile long connectStart;
+    private long nextSend;
+
+    LoadClient(final LoadGenerator generator, final String sender, final String padding, final CountDownLatch historyReceived,
+               final AtomicInteger roomMembers)
+    {
+        this.generator = generator;
+        this.sender = sender;
+        this.padding = padding;
+        this.historyReceived = historyReceived;
+        this.roomMembers = roomMembers;
+    }
+
+    void connecting()
+    {
+        connectStart = generator.now();
+    }
+
+    @Override
+    public void onOpen(final Session session, final EndpointConfig config)
+    {
+        this.session = session;
+        roomMembers.incrementAndGet();
+        session.addMessageHandler(new MessageHandler.Whole<String>()
+        {
+            @Override
+            public void onMessage(final String frame)
+            {
+                received(frame);
+            }
+        });
+    }
+
+    @Override
+    public void onClose(final Session session, final CloseReason closeReason)
+    {
+        this.session = null;
+        roomMembers.decrementAndGet();
+        generator.clientClosed(closeReason);
+    }
+
+    @Override
+    public void onError(final Session session, final Throwable cause)
+    {
+        generator.clientError(cause);
+    }
+
+    /**
+     * Starts the send schedule of this client.
+     */
+    void start(final long firstSend)
+    {
+        nextSend = firstSend;
+    }
+
+    /**
+     * Sends the message that was due at {@code nextSend}, called from the generator's scheduler.
+     */
+    void send(final long periodNanos)
+    {
+        final Session current = session;
+        final long due = nextSend;
+        nextSend += periodNanos;
+        if (current == null)
+        {
+            return;
+        }
+        // the sender name is ours, only the message needs escaping and it is plain ascii
+        final String frame = "{\"sender\":\"" + sender + "\",\"message\":\"" + MARKER + due + " " + padding + "\"}";
+        // every member connected now gets the message, the sender included
+        generator.sent(due, roomMembers.get());
+        current.getAsyncRemote().sendText(frame, result -> {
+            if (!result.isOK())
+            {
+                generator.sendFailed(result.getException());
+            }
+        });
+    }
+
+    void close()
+    {
+        final Session current = session;
+        if (current != null)
+        {
+            try
+            {
+                current.close();
+            }
+            catch (Exception e)
+            {
+                // closing anyway
+            }
+        }
+    }
+
+    private void received(final String frame)
+    {
+        final long now = generator.now();
+        if (!frame.startsWith(HISTORY_PREFIX))
+        {
+            // single message or batch frames built by ChatJsonEncoder, the message text comes first in every message
+            for (int start = frame.indexOf(MESSAGE_PREFIX); start >= 0; start = frame.indexOf(MESSAGE_PREFIX, start + 1))
+            {
+                long due = 0;
+                int digits = 0;
+                for (int i = start + MESSAGE_PREFIX.length(); i < frame.length(); i++, digits++)
+                {
+                    final char c = frame.charAt(i);
+                    if (c < '0' || c > '9')
+                    {
+                        break;
+                    }
+                    due = due * 10 + (c - '0');
+                }
+                if (digits > 0)
+                {
+                    generator.delivered(due, now);
+                }
+            }
+        }
+        else if (connectStart != 0)
+        {
+            generator.historyLoaded(now - connectStart);
+            connectStart = 0;
+            historyReceived.countDown();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import cloud.orbit.samples.metrics.Histogram;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connects rooms full of simulated users to a chat frontend, has them talk at a fixed rate
+ * and measures how long the messages take to reach every member of the room.
+ * <p>
+ * Only the messages due after the warm up and before the end of the measurement are measured;
+ * the ones still missing once the drain period is over are reported as lost.
+ */
+class LoadGenerator
+{
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(LoadGenerator.class);
+
+    private String uri = "ws://localhost:8080/sample/chat/";
+    private String roomPrefix = "loadgen-";
+    private int rooms = 10;
+    private int usersPerRoom = 10;
+    private double messagesPerSecond = 1;
+    private int messageSize = 64;
+    private int warmupSeconds = 10;
+    private int durationSeconds = 60;
+    private int drainSeconds = 5;
+    private int connectThreads = 16;
+    private int sendThreads = 4;
+
+    private final long origin = System.nanoTime();
+    private final Histogram deliveryLatency = new Histogram();
+    private final Histogram historyLatency = new Histogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private volatile long measureTo = Long.MAX_VALUE;
+
+    JsonObject run() throws InterruptedException
+    {
+        final WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        final List<LoadClient> clients = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch historyReceived = new CountDownLatch(rooms * usersPerRoom);
+        final String padding = padding();
+
+        logger.info("Connecting {} users in {} rooms to {}", rooms * usersPerRoom, rooms, uri);
+        final long connectStart = now();
+        final ExecutorService connectors = Executors.newFixedThreadPool(connectThreads);
+        for (int r = 0; r < rooms; r++)
+        {
+            final URI roomUri = URI.create(uri + roomPrefix + r);
+            final AtomicInteger roomMembers = new AtomicInteger();
+            for (int u = 0; u < usersPerRoom; u++)
+            {
+                final LoadClient client = new LoadClient(this, "lg-" + r + "-" + u, padding, historyReceived, roomMembers);
+                connectors.execute(() -> {
+                    client.connecting();
+                    try
+                    {
+                        container.connectToServer(client, ClientEndpointConfig.Builder.create().build(), roomUri);
+                        clients.add(client);
+                    }
+                    catch (Exception e)
+                    {
+                        connectFailures.increment();
+                        historyReceived.countDown();
+                        logger.debug("Connection failed", e);
+                    }
+                });
+            }
+        }
+        connectors.shutdown();
+        connectors.awaitTermination(10, TimeUnit.MINUTES);
+        if (!historyReceived.await(60, TimeUnit.SECONDS))
+        {
+            logger.warn("{} users still waiting for the room history", historyReceived.getCount());
+        }
+        final double connectSeconds = (now() - connectStart) / 1e9;
+        logger.info("{} users connected in {}s, {} failures", clients.size(), connectSeconds, connectFailures.sum());
+
+        // users talk at the requested rate, spread evenly over their first period
+        final long period = (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond);
+        final ScheduledExecutorService senders = Executors.newScheduledThreadPool(sendThreads);
+        final long sendStart = now();
+        measureFrom = sendStart + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        measureTo = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        synchronized (clients)
+        {
+            for (LoadClient client : clients)
+            {
+                final long delay = ThreadLocalRandom.current().nextLong(period);
+                client.start(sendStart + delay);
+                senders.scheduleAtFixedRate(() -> client.send(period), delay, period, TimeUnit.NANOSECONDS);
+            }
+        }
+        TimeUnit.NANOSECONDS.sleep(measureTo - now());
+        senders.shutdownNow();
+        TimeUnit.SECONDS.sleep(drainSeconds);
+
+        final JsonObject summary = summary(clients.size(), connectSeconds);
+        synchronized (clients)
+        {
+            clients.forEach(LoadClient::close);
+        }
+        return summary;
+    }
+
+    long now()
+    {
+        return System.nanoTime() - origin;
+    }
+
+    void sent(final long due, final int recipients)
+    {
+        if (measured(due))
+        {
+            sent.increment();
+            expected.add(recipients);
+        }
+    }
+
+    void delivered(final long due, final long now)
+    {
+        if (!measured(due))
+        {
+            return;
+        }
+        if (now > measureTo + TimeUnit.SECONDS.toNanos(drainSeconds))
+        {
+            late.increment();
+            return;
+        }
+        delivered.increment();
+        deliveryLatency.record(TimeUnit.NANOSECONDS.toMicros(now - due));
+    }
+
+    void historyLoaded(final long nanos)
+    {
+        historyLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void sendFailed(final Throwable cause)
+    {
+        sendFailures.increment();
+        logger.debug("Send failed", cause);
+    }
+
+    void clientClosed(final CloseReason reason)
+    {
+        closed.increment();
+    }
+
+    void clientError(final Throwable cause)
+    {
+        errors.increment();
+        logger.debug("Web socket error", cause);
+    }
+
+    private boolean measured(final long due)
+    {
+        return due >= measureFrom && due < measureTo;
+    }
+
+    private String padding()
+    {
+        final StringBuilder padding = new StringBuilder(messageSize);
+        for (int i = 0; i < messageSize; i++)
+        {
+            padding.append((char) ('a' + i % 26));
+        }
+        return padding.toString();
+    }
+
+    private JsonObject summary(final int connected, final double connectSeconds)
+    {
+        final long expected = this.expected.sum();
+        final long deliveries = delivered.sum();
+        return Json.createObjectBuilder()
+                .add("uri", uri)
+                .add("rooms", rooms)
+                .add("usersPerRoom", usersPerRoom)
+                .add("messagesPerSecondPerUser", messagesPerSecond)
+                .add("messageSize", messageSize)
+                .add("durationSeconds", durationSeconds)
+                .add("connected", connected)
+                .add("connectFailures", connectFailures.sum())
+                .add("connectSeconds", connectSeconds)
+                .add("sent", sent.sum())
+                .add("sendFailures", sendFailures.sum())
+                .add("expectedDeliveries", expected)
+                .add("delivered", deliveries)
+                .add("late", late.sum())
+                .add("lost", Math.max(0, expected - deliveries - late.sum()))
+                .add("closedSockets", closed.sum())
+                .add("socketErrors", errors.sum())
+                .add("sendThroughput", sent.sum() / (double) durationSeconds)
+                .add("deliveryThroughput", deliveries / (double) durationSeconds)
+                .add("deliveryLatencyMicros", toJson(deliveryLatency))
+                .add("historyLatencyMicros", toJson(historyLatency))
+                .build();
+    }
+
+    private static JsonObject toJson(final Histogram latency)
+    {
+        return Json.createObjectBuilder()
+                .add("count", latency.getCount())
+                .add("min", latency.getMin())
+                .add("mean", latency.getMean())
+                .add("p50", latency.percentile(0.5))
+                .add("p90", latency.percentile(0.9))
+                .add("p99", latency.percentile(0.99))
+                .add("p999", latency.percentile(0.999))
+                .add("max", latency.getMax())
+                .build();
+    }
+
+    void setUri(final String uri)
+    {
+        this.uri = uri.endsWith("/") ? uri : uri + "/";
+    }
+
+    void setRoomPrefix(final String roomPrefix)
+    {
+        this.roomPrefix = roomPrefix;
+    }
+
+    void setRooms(final int rooms)
+    {
+        this.rooms = rooms;
+    }
+
+    void setUsersPerRoom(final int usersPerRoom)
+    {
+        this.usersPerRoom = usersPerRoom;
+    }
+
+    void setMessagesPerSecond(final double messagesPerSecond)
+    {
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    void setMessageSize(final int messageSize)
+    {
+        this.messageSize = messageSize;
+    }
+
+    void setWarmupSeconds(final int warmupSeconds)
+    {
+        this.warmupSeconds = warmupSeconds;
+    }
+
+    void setDurationSeconds(final int durationSeconds)
+    {
+        this.durationSeconds = durationSeconds;
+    }
+
+    void setDrainSeconds(final int drainSeconds)
+    {
+        this.drainSeconds = drainSeconds;
+    }
+
+    void setConnectThreads(final int connectThreads)
+    {
+        this.connectThreads = connectThreads;
+    }
+
+    void setSendThreads(final int sendThreads)
+    {
+        this.sendThreads = sendThreads;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.chat;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * Runs the {@link LoadGenerator} against a running chat cluster and prints its summary as JSON.
+ * <p>
+ * Configured with {@code orbit.samples.chat.loadgen.*} system properties:
+ * {@code uri}, {@code roomPrefix}, {@code rooms}, {@code usersPerRoom}, {@code messagesPerSecond} (per user),
+ * {@code messageSize}, {@code warmupSeconds}, {@code durationSeconds}, {@code drainSeconds},
+ * {@code connectThreads}, {@code sendThreads}, and {@code output} to also write the summary to a file.
+ */
+public class LoadGeneratorMain
+{
+    private static final String PREFIX = "orbit.samples.chat.loadgen.";
+
+    public static void main(String[] args) throws InterruptedException, IOException
+    {
+        final LoadGenerator generator = new LoadGenerator();
+        property("uri", generator::setUri);
+        property("roomPrefix", generator::setRoomPrefix);
+        property("rooms", v -> generator.setRooms(Integer.parseInt(v)));
+        property("usersPerRoom", v -> generator.setUsersPerRoom(Integer.parseInt(v)));
+        property("messagesPerSecond", v -> generator.setMessagesPerSecond(Double.parseDouble(v)));
+        property("messageSize", v -> generator.setMessageSize(Integer.parseInt(v)));
+        property("warmupSeconds", v -> generator.setWarmupSeconds(Integer.parseInt(v)));
+        property("durationSeconds", v -> generator.setDurationSeconds(Integer.parseInt(v)));
+        property("drainSeconds", v -> generator.setDrainSeconds(Integer.parseInt(v)));
+        property("connectThreads", v -> generator.setConnectThreads(Integer.parseInt(v)));
+        property("sendThreads", v -> generator.setSendThreads(Integer.parseInt(v)));
+
+        final JsonObject summary = generator.run();
+
+        final StringWriter text = new StringWriter();
+        try (JsonWriter writer = Json.createWriterFactory(Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true)).createWriter(text))
+        {
+            writer.writeObject(summary);
+        }
+        System.out.println(text);
+        final String output = System.getProperty(PREFIX + "output");
+        if (output != null)
+        {
+            Files.write(Paths.get(output), text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        // the web socket client threads would keep the vm alive
+        System.exit(0);
+    }
+
+    private static void property(final String name, final Consumer<String> setter)
+    {
+        final String value = System.getProperty(PREFIX + name);
+        if (value != null)
+        {
+            setter.accept(value);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+@echo off
+
+echo Starting the chat load generator
+
+cd chat-loadgen
+mvn exec:java %*
\ No newline at end of file
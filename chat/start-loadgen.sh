@@ -0,0 +1,6 @@
+#!/bin/sh
+
+echo 'Starting the chat load generator'
+
+cd chat-loadgen
+mvn exec:java "$@" 2>&1
@@ -37,4 +37,9 @@ import cloud.orbit.concurrent.Task;
 public interface Hello extends Actor
 {
     Task<String> sayHello(String greeting);
+
+    /**
+     * Returns the payload, the request/response call of {@link HelloBenchmark}.
+     */
+    Task<String> echo(String payload);
 }
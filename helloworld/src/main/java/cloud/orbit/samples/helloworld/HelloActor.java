@@ -42,4 +42,10 @@ public class HelloActor extends AbstractActor implements Hello
         return Task.fromValue("You said: '" + greeting
                 + "', I say: Hello from " + System.identityHashCode(this) + " !");
     }
+
+    @Override
+    public Task<String> echo(String payload)
+    {
+        return Task.fromValue(payload);
+    }
 }
@@ -0,0 +1,197 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.samples.helloworld;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.samples.metrics.Histogram;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the throughput and latency of actor calls on a local stage, as a baseline of the Orbit invocation overhead.
+ * <p>
+ * Runs {@code calls} calls of {@link Hello#echo} (request/response) and of {@link HelloSink#receive} (one-way),
+ * spread over {@code actors} actors with a payload of {@code payloadBytes}, keeping {@code concurrency} calls in flight,
+ * after {@code warmupCalls} calls that activate the actors and warm the JIT up. The properties are read from
+ * {@code orbit.samples.helloworld.benchmark.*}; {@code mode} picks {@code requestResponse}, {@code oneWay} or
+ * {@code both}. The latency of a one-way call runs until the actor starts processing it.
+ * <p>
+ * {@code mvn exec:java -Dexec.mainClass=cloud.orbit.samples.helloworld.HelloBenchmark -Dorbit.samples.helloworld.benchmark.actors=1000}
+ */
+public class HelloBenchmark
+{
+    private static final String PREFIX = "orbit.samples.helloworld.benchmark.";
+
+    private final long calls = Long.getLong(PREFIX + "calls", 1_000_000);
+    private final long warmupCalls = Long.getLong(PREFIX + "warmupCalls", 100_000);
+    private final int concurrency = Integer.getInteger(PREFIX + "concurrency", 64);
+    private final int actorCount = Integer.getInteger(PREFIX + "actors", 1);
+    private final int payloadBytes = Integer.getInteger(PREFIX + "payloadBytes", 16);
+    private final String mode = System.getProperty(PREFIX + "mode", "both");
+
+    private final LongAdder errors = new LongAdder();
+    private Hello[] actors;
+    private HelloSink[] sinks;
+    private String payload;
+
+    public static void main(String[] args) throws Exception
+    {
+        new HelloBenchmark().run();
+    }
+
+    private void run() throws Exception
+    {
+        final Stage stage = new Stage.Builder().clusterName("orbit-helloworld-benchmark").build();
+        stage.start().join();
+        stage.bind();
+
+        actors = new Hello[actorCount];
+        sinks = new HelloSink[actorCount];
+        for (int i = 0; i < actorCount; i++)
+        {
+            actors[i] = Actor.getReference(Hello.class, String.valueOf(i));
+            sinks[i] = Actor.getReference(HelloSink.class, String.valueOf(i));
+        }
+        final char[] chars = new char[payloadBytes];
+        Arrays.fill(chars, 'x');
+        payload = new String(chars);
+
+        // printed once done, console output stays out of the measurements
+        final StringBuilder report = new StringBuilder();
+        report.append("actors=").append(actorCount).append(" concurrency=").append(concurrency)
+                .append(" payloadBytes=").append(payloadBytes).append('\n');
+        if (!"oneWay".equals(mode))
+        {
+            requestResponse(warmupCalls, new Histogram());
+            report(report, "requestResponse", calls, requestResponse(calls, new Histogram()));
+        }
+        if (!"requestResponse".equals(mode))
+        {
+            oneWay(warmupCalls, new Histogram());
+            report(report, "oneWay", calls, oneWay(calls, new Histogram()));
+        }
+        if (errors.sum() > 0)
+        {
+            report.append("errors=").append(errors.sum()).append('\n');
+        }
+        System.out.print(report);
+
+        stage.stop().join();
+    }
+
+    private void report(final StringBuilder report, final String name, final long count, final Result result)
+    {
+        final double seconds = result.nanos / 1e9;
+        report.append(String.format("%s: %d calls in %.2fs, %.0f calls/s, %s%n",
+                name, count, seconds, count / seconds, summary(result.latency)));
+    }
+
+    private Result requestResponse(final long count, final Histogram latency) throws InterruptedException
+    {
+        final AtomicLong issued = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(concurrency);
+        final long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++)
+        {
+            echo(count, issued, done, latency);
+        }
+        done.await();
+        return new Result(System.nanoTime() - start, latency);
+    }
+
+    /**
+     * Makes the next call once the previous one of this chain completed, until {@code count} calls were issued.
+     */
+    private void echo(final long count, final AtomicLong issued, final CountDownLatch done, final Histogram latency)
+    {
+        final long n = issued.getAndIncrement();
+        if (n >= count)
+        {
+            done.countDown();
+            return;
+        }
+        final long sent = System.nanoTime();
+        actors[(int) (n % actors.length)].echo(payload).whenComplete((response, ex) -> {
+            if (ex != null)
+            {
+                errors.increment();
+            }
+            else
+            {
+                latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+            }
+            echo(count, issued, done, latency);
+        });
+    }
+
+    private Result oneWay(final long count, final Histogram latency) throws InterruptedException
+    {
+        final Semaphore permits = new Semaphore(concurrency);
+        HelloSinkActor.measure(latency, permits);
+        final long start = System.nanoTime();
+        for (long n = 0; n < count; n++)
+        {
+            if (!permits.tryAcquire(10, TimeUnit.SECONDS))
+            {
+                throw new IllegalStateException("One-way calls stopped reaching the actors after " + n + " calls");
+            }
+            sinks[(int) (n % sinks.length)].receive(System.nanoTime(), payload);
+        }
+        // all received once every permit is back
+        if (!permits.tryAcquire(concurrency, 10, TimeUnit.SECONDS))
+        {
+            throw new IllegalStateException("Some one-way calls never reached the actors");
+        }
+        return new Result(System.nanoTime() - start, latency);
+    }
+
+    private static String summary(final Histogram latency)
+    {
+        return "p50=" + latency.percentile(0.5) + "us p90=" + latency.percentile(0.9) + "us p99=" + latency.percentile(0.99)
+                + "us p999=" + latency.percentile(0.999) + "us max=" + latency.getMax() + "us";
+    }
+
+    private static class Result
+    {
+        final long nanos;
+        final Histogram latency;
+
+        Result(final long nanos, final Histogram latency)
+        {
+            this.nanos = nanos;
+            this.latency = latency;
+        }
+    }
+}
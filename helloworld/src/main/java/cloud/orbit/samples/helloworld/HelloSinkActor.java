@@ -0,0 +1,66 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.samples.helloworld;
+
+import cloud.orbit.actors.runtime.AbstractActor;
+import cloud.orbit.concurrent.Task;
+import cloud.orbit.samples.metrics.Histogram;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latency of each one-way call when the actor starts processing it, and gives its permit back.
+ * <p>
+ * One-way calls complete their task once sent, so the sinks count the calls themselves,
+ * into the histogram and permits of the run set by {@link #measure}; the stage is local to the benchmark.
+ */
+public class HelloSinkActor extends AbstractActor implements HelloSink
+{
+    private static volatile Histogram latency;
+    private static volatile Semaphore permits;
+
+    static void measure(final Histogram latency, final Semaphore permits)
+    {
+        HelloSinkActor.permits = permits;
+        HelloSinkActor.latency = latency;
+    }
+
+    @Override
+    public Task<Void> receive(long sentNanos, String payload)
+    {
+        final Histogram latency = HelloSinkActor.latency;
+        if (latency != null)
+        {
+            latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentNanos));
+            permits.release();
+        }
+        return Task.done();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+1.  Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+2.  Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+    its contributors may be used to endorse or promote products derived
+    from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package cloud.orbit.samples.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest
+{
+    @Test
+    public void empty()
+    {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.percentile(0.99));
+    }
+
+    @Test
+    public void smallValuesAreExact()
+    {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 50; i++)
+        {
+            histogram.record(i);
+        }
+        assertEquals(50, histogram.getCount());
+        assertEquals(1275, histogram.getSum());
+        assertEquals(1, histogram.getMin());
+        assertEquals(25, histogram.percentile(0.5));
+        assertEquals(45, histogram.percentile(0.9));
+        assertEquals(50, histogram.percentile(1));
+    }
+
+    @Test
+    public void largeValuesWithinBucketError()
+    {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100_000; i++)
+        {
+            histogram.record(i * 10L);
+        }
+        final long p99 = histogram.percentile(0.99);
+        assertTrue(p99 >= 990_000 && p99 <= 990_000 * 1.016);
+        assertEquals(1_000_000, histogram.percentile(1));
+        assertEquals(1_000_000, histogram.getMax());
+    }
+
+    @Test
+    public void bucketBoundsCoverEveryValue()
+    {
+        for (long value : new long[]{ 0, 63, 64, 65, 127, 128, 1000, 123_456_789, Long.MAX_VALUE })
+        {
+            final int bucket = Histogram.bucket(value);
+            assertTrue(Histogram.upperBound(bucket) >= value);
+            assertTrue(bucket == 0 || Histogram.upperBound(bucket - 1) < value);
+        }
+    }
+}